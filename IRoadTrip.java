@@ -1,22 +1,77 @@
 
 // imports
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDate;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
 
 public class IRoadTrip {
-    // used data structures
-    private HashMap<String, List<String>> countryBorders = new HashMap<>();
-    private HashMap<String, Integer> capdistMap = new HashMap<>();
+    // used data structures, filled while loading. once the graph is built,
+    // queries read the network's StateLookup, which a reload replaces together
+    // with the graph
+    HashMap<String, List<String>> countryBorders = new HashMap<>();
+    private volatile CapitalDistances capitalDistances;
     private HashMap<String, stateInfo> stateInfoMap = new HashMap<>();
-    private HashMap<String, String> countryId = new HashMap<>();
-    private HashMap<String, HashMap<String, Integer>> graph = new HashMap<>();
-    private Map<String, Integer> distances = new HashMap<>();
+    private ArrayList<stateInfo> stateHistory = new ArrayList<>();
+    private HashMap<String, stateInfo> countryId = new HashMap<>();
+    private boolean borderCapitalsOnly;
+    private volatile LoadTimings loadTimings;
+    private volatile Network network;
+    private volatile SearchMode searchMode = SearchMode.DIJKSTRA;
+    private final ThreadLocal<SearchState> searchStates = new ThreadLocal<>();
+    private final SearchStats stats = new SearchStats();
 
     /**
      * read country borders, capital distances, and state information files
@@ -26,25 +81,221 @@ public class IRoadTrip {
      *             and state information
      */
     public IRoadTrip(String[] args) {
+        this(args, false);
+    }
+
+    /**
+     * read country borders, capital distances, and state information files
+     * create graph representation of country borders and capdist
+     *
+     * @param args               three file paths representing country borders,
+     *                           capital distances, and state information
+     * @param borderCapitalsOnly keep only the capital distances between bordering
+     *                           countries. this saves memory, but without the
+     *                           other pairs A* has no estimate to work with
+     */
+    public IRoadTrip(String[] args, boolean borderCapitalsOnly) {
         try {
-            // read files and build the graph
-            String bordersFile = readFile(args[0]);
-            handleBorders(countryBorders, bordersFile);
+            loadFiles(args, borderCapitalsOnly);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * read country borders, capital distances, and state information files and
+     * create the graph like the constructor does, but report a failure to the
+     * caller instead of exiting
+     *
+     * @param args               three file paths representing country borders,
+     *                           capital distances, and state information
+     * @param borderCapitalsOnly keep only the capital distances between bordering
+     *                           countries
+     * @return IRoadTrip answering queries on the loaded graph
+     * @throws IOException if a file cannot be read or is malformed
+     */
+    public static IRoadTrip load(String[] args, boolean borderCapitalsOnly) throws IOException {
+        IRoadTrip roadTrip = new IRoadTrip();
+        try {
+            roadTrip.loadFiles(args, borderCapitalsOnly);
+        } catch (RuntimeException e) {
+            throw new IOException("malformed data files: " + e, e);
+        }
+        return roadTrip;
+    }
 
-            String capdistFile = readFile(args[1]);
-            processCapDist(capdistFile);
+    /**
+     * reads the three data files into this IRoadTrip and builds the graph. the
+     * files are read and parsed at the same time, each task filling only its own
+     * fields; capdist is linked to the state numbers once both are parsed, and
+     * the graph is built as soon as everything it needs is ready
+     *
+     * @param args               three file paths representing country borders,
+     *                           capital distances, and state information
+     * @param borderCapitalsOnly keep only the capital distances between bordering
+     *                           countries
+     * @throws IOException if a file cannot be read or is malformed
+     */
+    private void loadFiles(String[] args, boolean borderCapitalsOnly) throws IOException {
+        this.borderCapitalsOnly = borderCapitalsOnly;
+        long began = System.nanoTime();
+        LoadTimings timings = new LoadTimings();
 
+        CompletableFuture<Void> borders = loadAsync(() -> {
+            long start = System.nanoTime();
+            String bordersFile = readFile(args[0]);
+            long read = System.nanoTime();
+            handleBorders(countryBorders, bordersFile);
+            timings.record(LoadPhase.READ_BORDERS, read - start);
+            timings.record(LoadPhase.PARSE_BORDERS, System.nanoTime() - read);
+            return null;
+        });
+        CompletableFuture<Void> stateNames = loadAsync(() -> {
+            long start = System.nanoTime();
             String stateNameFile = readFile(args[2]);
+            long read = System.nanoTime();
             processStateName(stateNameFile);
+            timings.record(LoadPhase.READ_STATE_NAMES, read - start);
+            timings.record(LoadPhase.PARSE_STATE_NAMES, System.nanoTime() - read);
+            return null;
+        });
+        CompletableFuture<CapitalDistances> capDist = loadAsync(() -> {
+            long start = System.nanoTime();
+            CapitalDistances parsed = CapitalDistances.parse(Paths.get(args[1]));
+            timings.record(LoadPhase.PARSE_CAPDIST, System.nanoTime() - start);
+            return parsed;
+        });
+
+        // linking needs the state numbers, and the borders to keep only those
+        CompletableFuture<?> linkInputs = borderCapitalsOnly ? CompletableFuture.allOf(stateNames, borders)
+                : stateNames;
+        CompletableFuture<Void> linked = capDist.thenAcceptBoth(linkInputs, (parsed, ignored) -> {
+            long start = System.nanoTime();
+            linkCapDist(parsed, borderCapitalsOnly);
+            timings.record(LoadPhase.LINK_CAPDIST, System.nanoTime() - start);
+        });
+        try {
+            CompletableFuture.allOf(borders, linked).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+
+        long build = System.nanoTime();
+        buildGraph();
+        timings.record(LoadPhase.BUILD_GRAPH, System.nanoTime() - build);
+        timings.record(LoadPhase.TOTAL, System.nanoTime() - began);
+        loadTimings = timings;
+    }
 
-            buildGraph();
+    /**
+     * a step of loading the data files
+     */
+    private interface LoadStep<T> {
+        /**
+         * @return result of the step
+         * @throws IOException if a file cannot be read or is malformed
+         */
+        T run() throws IOException;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+    /**
+     * runs a loading step on the common fork/join pool
+     *
+     * @param step step to run
+     * @return future completed with the result of the step, or exceptionally with
+     *         an UncheckedIOException wrapping its IOException
+     */
+    private static <T> CompletableFuture<T> loadAsync(LoadStep<T> step) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return step.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * phases of loading the data files. the reads and parses of different files
+     * overlap, so their times add up to more than the total
+     */
+    public enum LoadPhase {
+        /** reading borders.txt */
+        READ_BORDERS,
+        /** tokenizing the border lines */
+        PARSE_BORDERS,
+        /** reading state_name.tsv */
+        READ_STATE_NAMES,
+        /** parsing the state names and their dates */
+        PARSE_STATE_NAMES,
+        /** reading and parsing capdist.csv */
+        PARSE_CAPDIST,
+        /** linking capdist to the state numbers, and keeping only borders if asked */
+        LINK_CAPDIST,
+        /** building the graph, its components, timeline and heuristic */
+        BUILD_GRAPH,
+        /** wall clock time from the first read until the graph is ready */
+        TOTAL
+    }
+
+    /**
+     * how long each phase of loading the data files took
+     */
+    public static final class LoadTimings {
+        private final long[] nanos = new long[LoadPhase.values().length];
+
+        void record(LoadPhase phase, long elapsed) {
+            nanos[phase.ordinal()] = elapsed;
+        }
+
+        /**
+         * @param phase phase of loading
+         * @return time the phase took in nanoseconds
+         */
+        public long nanos(LoadPhase phase) {
+            return nanos[phase.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (LoadPhase phase : LoadPhase.values()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(phase.name().toLowerCase()).append(' ')
+                        .append(String.format("%.1f ms", nanos(phase) / 1e6));
+            }
+            return sb.toString();
         }
     }
 
+    /**
+     * @return how long each phase of the last load of the data files took,
+     *         including a reload, or null if the graph came from a snapshot
+     */
+    public LoadTimings loadTimings() {
+        return loadTimings;
+    }
+
+    /**
+     * constructs an IRoadTrip with nothing loaded, for running the loading steps
+     * one at a time
+     */
+    IRoadTrip() {
+    }
+
     /**
      * feads the content of a file given file path.
      *
@@ -52,68 +303,141 @@ public class IRoadTrip {
      * @return string containing the content of the file.
      * @throws IOException if an I/O error occurs while parsing the file
      */
-    private String readFile(String filePath) throws IOException {
+    String readFile(String filePath) throws IOException {
         Path path = Paths.get(filePath);
         return Files.readString(path);
     }
 
     /**
-     * parses the border information creates a list of neighboring countries
+     * reads and processes the border information
+     * populates countryBorders map with country names and their neighboring
+     * countries
      *
-     * @param borderInfo string containing border information for a country
-     * @return list of neighboring countries
+     * @param countryBorders map to store the country names and neighboring
+     *                       countries
+     * @param fileContent    content of the file containing border information
+     */
+    void handleBorders(HashMap<String, List<String>> countryBorders, String fileContent) {
+        forEachLine(fileContent, (start, end) -> handleBorderLine(countryBorders, fileContent.substring(start, end)));
+    }
+
+    /**
+     * receives the lines of a file's content
      */
-    private List<String> addBorders(String borderInfo) {
-        List<String> neighboringCountries = new ArrayList<>();
+    private interface LineHandler {
+        /**
+         * @param start index of the first character of the line
+         * @param end   index just past its last character, before the line break
+         */
+        void line(int start, int end);
+    }
 
-        String[] borders = borderInfo.split(";");
+    /**
+     * splits text into the lines Scanner.nextLine() would return, without the
+     * regular expressions Scanner matches every line with
+     *
+     * @param text    content to split
+     * @param handler receives every line in order
+     */
+    private static void forEachLine(String text, LineHandler handler) {
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && !isLineBreak(text.charAt(end))) {
+                end++;
+            }
+            handler.line(start, end);
 
-        for (String border : borders) {
-            String[] parts = border.trim().split("\\s+");
-            if (parts.length > 0) {
-                neighboringCountries.add(parts[0]);
+            start = end;
+            if (start < length) {
+                start += text.startsWith("\r\n", start) ? 2 : 1;
             }
         }
+    }
 
-        return neighboringCountries;
+    /**
+     * @return true for the characters Scanner.nextLine() ends a line at
+     */
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
     }
 
     /**
-     * reads and processes the border information
-     * populates countryBorders map with country names and their neighboring
-     * countries
+     * processes one line of borders.txt. anything in parentheses is dropped,
+     * the text before the first "=" is the country and the first word of every
+     * ";" separated entry up to the next "=" is a neighbor, once a trailing
+     * length like "1,065 km" is cut off. a line with nothing after its "=" is
+     * skipped, an island's line gives a single empty neighbor
      *
      * @param countryBorders map to store the country names and neighboring
      *                       countries
-     * @param fileContent    content of the file containing border information
+     * @param line           line of the file, without its line break
      */
-    private void handleBorders(HashMap<String, List<String>> countryBorders, String fileContent) {
-        Scanner scan = new Scanner(fileContent);
-
-        while (scan.hasNextLine()) {
-            String line = scan.nextLine();
-
-            // remove "km" and numbers
-            line = line.replaceAll("\\b[\\d,\\.]+\\s*km\\b", "");
-            line = removeParentheses(line);
-
-            String[] parts = line.split("=");
+    private static void handleBorderLine(Map<String, List<String>> countryBorders, String line) {
+        line = removeParentheses(line);
+        int equals = line.indexOf('=');
+        if (equals < 0) {
+            return;
+        }
+        int next = equals + 1;
+        while (next < line.length() && line.charAt(next) == '=') {
+            next++;
+        }
+        if (next == line.length()) {
+            return;
+        }
+        next = line.indexOf('=', equals + 1);
+        String borderInfo = line.substring(equals + 1, next < 0 ? line.length() : next).trim();
 
-            if (parts.length >= 2) {
-                String countryName = parts[0].trim();
-                String borderInfo = parts[1].trim();
+        List<String> neighbors = new ArrayList<>();
+        for (String entry : borderInfo.split(";")) {
+            neighbors.add(firstWord(removeLength(entry.trim())));
+        }
+        countryBorders.put(line.substring(0, equals).trim(), neighbors);
+    }
 
-                // extract only the country name
-                List<String> countryBounds = addBorders(borderInfo)
-                        .stream()
-                        .map(neighbor -> neighbor.split("\\s+")[0])
-                        .collect(Collectors.toList());
+    /**
+     * cuts a trailing length like "1,065 km" off a border entry
+     *
+     * @param entry trimmed border entry
+     * @return the entry without its length, trimmed
+     */
+    private static String removeLength(String entry) {
+        int unit = entry.length() - " km".length();
+        if (!entry.endsWith(" km")) {
+            return entry;
+        }
+        int number = entry.lastIndexOf(' ', unit - 1) + 1;
+        if (number == unit) {
+            return entry;
+        }
+        for (int i = number; i < unit; i++) {
+            char c = entry.charAt(i);
+            if ((c < '0' || c > '9') && c != ',' && c != '.') {
+                return entry;
+            }
+        }
+        return entry.substring(0, number).trim();
+    }
 
-                countryBorders.put(countryName, countryBounds);
+    /**
+     * @return the text up to the first blank, or all of it if there is none
+     */
+    private static String firstWord(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isSpace(text.charAt(i))) {
+                return text.substring(0, i);
             }
         }
+        return text;
+    }
 
-        scan.close();
+    /**
+     * @return true for the characters \s matches
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     /**
@@ -123,11 +447,24 @@ public class IRoadTrip {
      * @return input string with content removed
      */
     private static String removeParentheses(String input) {
-        // remove anything between parentheses
-        String regex = "\\([^)]*\\)";
-        Pattern parens = Pattern.compile(regex);
-        Matcher matcher = parens.matcher(input);
-        return matcher.replaceAll("");
+        int open = input.indexOf('(');
+        if (open < 0) {
+            return input;
+        }
+
+        // remove anything between parentheses, an unclosed one stays
+        StringBuilder sb = new StringBuilder(input.length());
+        int copied = 0;
+        while (open >= 0) {
+            int close = input.indexOf(')', open + 1);
+            if (close < 0) {
+                break;
+            }
+            sb.append(input, copied, open);
+            copied = close + 1;
+            open = input.indexOf('(', copied);
+        }
+        return sb.append(input, copied, input.length()).toString();
     }
 
     public static class capitalsInfo {
@@ -157,29 +494,334 @@ public class IRoadTrip {
     }
 
     /**
-     * processes the content the capdist file
+     * processes the capdist file
+     *
+     * @param path               path of the file containing capital distances
+     * @param borderCapitalsOnly keep only pairs of countries that share a border
+     * @throws IOException if an I/O error occurs while parsing the file
+     */
+    void processCapDist(Path path, boolean borderCapitalsOnly) throws IOException {
+        linkCapDist(CapitalDistances.parse(path), borderCapitalsOnly);
+    }
+
+    /**
+     * links parsed capital distances to the state numbers of state_name.tsv, once
+     * both are read
+     *
+     * @param parsed             capital distances parsed from capdist
+     * @param borderCapitalsOnly keep only pairs of countries that share a border
+     */
+    void linkCapDist(CapitalDistances parsed, boolean borderCapitalsOnly) {
+        capitalDistances = parsed;
+
+        // a few states are numbered differently in capdist (Serbia is 345
+        // there and 340 in state_name.tsv), their code still matches
+        for (stateInfo state : countryId.values()) {
+            capitalDistances.link(state.stateNum, state.stateID);
+        }
+
+        if (borderCapitalsOnly) {
+            HashSet<Long> borderPairs = new HashSet<>();
+            for (Map.Entry<String, List<String>> entry : countryBorders.entrySet()) {
+                int stateA = findCountryId(entry.getKey());
+                for (String neighbor : entry.getValue()) {
+                    int stateB = findCountryId(neighbor);
+                    if (stateA >= 0 && stateB >= 0) {
+                        borderPairs.add(((long) stateA << 32) | stateB);
+                        borderPairs.add(((long) stateB << 32) | stateA);
+                    }
+                }
+            }
+            capitalDistances = capitalDistances.retain(borderPairs);
+        }
+    }
+
+    /**
+     * capital to capital distances from capdist, indexed by state number. the
+     * state numbers are packed into dense slots and the distances stored as
+     * chars, either in one triangular matrix over all states or, when only some
+     * pairs are retained, in a sorted key array. capdist lists every pair in both
+     * orders with the same distance, so each pair is stored once
      *
-     * @param fileContent content of the file containing capital distances
+     * the matrix is kept outside the heap when the iroadtrip.capdist.offHeap
+     * system property is true
      */
-    private void processCapDist(String fileContent) {
-        Scanner scan = new Scanner(fileContent);
+    static final class CapitalDistances {
+        private static final char MISSING = Character.MAX_VALUE;
+        private static final boolean OFF_HEAP = Boolean.getBoolean("iroadtrip.capdist.offHeap");
+
+        private final int[] slots;
+        private final HashMap<String, Integer> codeSlots;
+        private final int count;
+        private final CharBuffer matrix;
+        private final int[] keys;
+        private final char[] values;
+
+        private CapitalDistances(int[] slots, HashMap<String, Integer> codeSlots, int count, CharBuffer matrix,
+                int[] keys, char[] values) {
+            this.slots = slots;
+            this.codeSlots = codeSlots;
+            this.count = count;
+            this.matrix = matrix;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        /**
+         * parses capdist.csv straight from a memory mapped buffer. the numa, numb
+         * and kmdist fields are parsed in place, the ida code is only read the
+         * first time a state shows up
+         *
+         * @param path path of the capdist file
+         * @return the parsed distances
+         * @throws IOException if an I/O error occurs, a line is malformed or the
+         *                     two orders of a pair have different distances
+         */
+        static CapitalDistances parse(Path path) throws IOException {
+            int[] slots = new int[1024];
+            Arrays.fill(slots, -1);
+            HashMap<String, Integer> codeSlots = new HashMap<>();
+            int count = 0;
+            int[] rows = new int[3 * 4096];
+            int rowCount = 0;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                CsvCursor cursor = new CsvCursor(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                cursor.skipLine();
+
+                while (cursor.hasMore()) {
+                    if (cursor.atLineEnd()) {
+                        cursor.skipLine();
+                        continue;
+                    }
+                    int stateA = cursor.nextInt();
+                    if (stateA >= slots.length) {
+                        int oldLength = slots.length;
+                        slots = Arrays.copyOf(slots, Math.max(2 * oldLength, stateA + 1));
+                        Arrays.fill(slots, oldLength, slots.length, -1);
+                    }
+                    if (slots[stateA] < 0) {
+                        slots[stateA] = count;
+                        codeSlots.put(cursor.nextField(), count++);
+                    } else {
+                        cursor.skipField();
+                    }
+                    int stateB = cursor.nextInt();
+                    cursor.skipField();
+                    int km = cursor.nextInt();
+                    cursor.skipLine();
+                    if (km >= MISSING) {
+                        throw new IOException("capital distance out of range on line " + cursor.line + ": " + path);
+                    }
+
+                    if (rowCount + 3 > rows.length) {
+                        rows = Arrays.copyOf(rows, 2 * rows.length);
+                    }
+                    rows[rowCount++] = stateA;
+                    rows[rowCount++] = stateB;
+                    rows[rowCount++] = km;
+                }
+            }
+
+            int cells = triangle(count);
+            CharBuffer matrix = OFF_HEAP
+                    ? ByteBuffer.allocateDirect(2 * cells).order(ByteOrder.nativeOrder()).asCharBuffer()
+                    : CharBuffer.allocate(cells);
+            for (int i = 0; i < cells; i++) {
+                matrix.put(i, MISSING);
+            }
+            for (int i = 0; i < rowCount; i += 3) {
+                int stateA = rows[i];
+                int stateB = rows[i + 1];
+                if (stateB >= slots.length || slots[stateB] < 0) {
+                    throw new IOException("state " + stateB + " never appears in the numa column: " + path);
+                }
+                int cell = cell(slots[stateA], slots[stateB]);
+                char km = (char) rows[i + 2];
+                char stored = matrix.get(cell);
+                if (stored != MISSING && stored != km) {
+                    throw new IOException("capital distance between states " + stateA + " and " + stateB
+                            + " differs by direction: " + path);
+                }
+                matrix.put(cell, km);
+            }
+            return new CapitalDistances(slots, codeSlots, count, matrix, null, null);
+        }
+
+        /**
+         * makes a state number missing from capdist use the row of the state
+         * with the same code
+         *
+         * @param stateNumber state number from state_name.tsv
+         * @param stateCode   state code from state_name.tsv
+         */
+        void link(int stateNumber, String stateCode) {
+            Integer slot = codeSlots.get(stateCode);
+            if (slot != null && stateNumber < slots.length && slots[stateNumber] < 0) {
+                slots[stateNumber] = slot;
+            }
+        }
+
+        /**
+         * copies only some pairs into sparse storage
+         *
+         * @param statePairs pairs to keep, each packed as stateA << 32 | stateB
+         * @return distances of the retained pairs
+         */
+        CapitalDistances retain(Set<Long> statePairs) {
+            long[] packed = new long[statePairs.size()];
+            int size = 0;
+            for (long pair : statePairs) {
+                int stateA = (int) (pair >>> 32);
+                int stateB = (int) pair;
+                int km = distance(stateA, stateB);
+                if (km >= 0) {
+                    packed[size++] = ((long) cell(slots[stateA], slots[stateB]) << 16) | km;
+                }
+            }
 
-        if (scan.hasNextLine()) {
-            scan.nextLine();
+            // sorted pair keys with matching distances, searched by bisection.
+            // both orders of a pair share a key, keep it once
+            Arrays.sort(packed, 0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || packed[i] != packed[unique - 1]) {
+                    packed[unique++] = packed[i];
+                }
+            }
+            int[] keys = new int[unique];
+            char[] values = new char[unique];
+            for (int i = 0; i < unique; i++) {
+                keys[i] = (int) (packed[i] >>> 16);
+                values[i] = (char) packed[i];
+            }
+            return new CapitalDistances(slots, codeSlots, count, null, keys, values);
         }
 
-        while (scan.hasNextLine()) {
-            String line = scan.nextLine();
-            String[] fields = line.split(",");
+        /**
+         * @param stateA state number of the first country
+         * @param stateB state number of the second country
+         * @return distance between the two capitals in kilometers, or -1 if
+         *         capdist has no such row or it was not retained
+         */
+        int distance(int stateA, int stateB) {
+            if (stateA < 0 || stateB < 0 || stateA >= slots.length || stateB >= slots.length
+                    || slots[stateA] < 0 || slots[stateB] < 0) {
+                return -1;
+            }
+
+            int cell = cell(slots[stateA], slots[stateB]);
+            char km;
+            if (matrix != null) {
+                km = matrix.get(cell);
+            } else {
+                int i = Arrays.binarySearch(keys, cell);
+                km = i >= 0 ? values[i] : MISSING;
+            }
+            return km == MISSING ? -1 : km;
+        }
 
-            String countryAID = fields[1];
-            String countryBID = fields[3];
-            int kmDistance = Integer.parseInt(fields[4]);
-            String combCode = countryAID + countryBID;
+        /**
+         * @return cells of a triangular matrix over count slots, diagonal
+         *         included
+         */
+        private static int triangle(int count) {
+            return count * (count + 1) / 2;
+        }
 
-            capdistMap.put(combCode, kmDistance);
+        /**
+         * @return cell of a pair of slots in the triangular matrix, the same for
+         *         both orders
+         */
+        private static int cell(int slotA, int slotB) {
+            return slotA >= slotB ? triangle(slotA) + slotB : triangle(slotB) + slotA;
+        }
+
+        /**
+         * reads comma separated fields byte by byte from a buffer
+         */
+        private static final class CsvCursor {
+            private final ByteBuffer buffer;
+            private int position;
+            private int line = 1;
+
+            CsvCursor(ByteBuffer buffer) {
+                this.buffer = buffer;
+            }
+
+            boolean hasMore() {
+                return position < buffer.limit();
+            }
+
+            boolean atLineEnd() {
+                byte b = buffer.get(position);
+                return b == '\n' || b == '\r';
+            }
+
+            /**
+             * parses an unsigned decimal field and moves past its comma
+             */
+            int nextInt() throws IOException {
+                int value = 0;
+                int start = position;
+                while (position < buffer.limit()) {
+                    byte b = buffer.get(position);
+                    if (b < '0' || b > '9') {
+                        break;
+                    }
+                    value = value * 10 + (b - '0');
+                    position++;
+                }
+                if (position == start || position - start > 9) {
+                    throw new IOException("malformed number on capdist line " + line);
+                }
+                if (position < buffer.limit() && buffer.get(position) == ',') {
+                    position++;
+                }
+                return value;
+            }
+
+            /**
+             * reads an ASCII field and moves past its comma
+             */
+            String nextField() {
+                int start = position;
+                skipField();
+                int end = position;
+                if (end > start && buffer.get(end - 1) == ',') {
+                    end--;
+                }
+                byte[] bytes = new byte[end - start];
+                buffer.get(start, bytes);
+                return new String(bytes, StandardCharsets.US_ASCII);
+            }
+
+            /**
+             * moves past the next field and its comma
+             */
+            void skipField() {
+                while (position < buffer.limit()) {
+                    byte b = buffer.get(position);
+                    if (b == '\n' || b == '\r') {
+                        return;
+                    }
+                    position++;
+                    if (b == ',') {
+                        return;
+                    }
+                }
+            }
+
+            /**
+             * moves to the start of the next line
+             */
+            void skipLine() {
+                while (position < buffer.limit() && buffer.get(position++) != '\n') {
+                    // skip the rest of the line
+                }
+                line++;
+            }
         }
-        scan.close();
     }
 
     public class stateInfo {
@@ -212,15 +854,15 @@ public class IRoadTrip {
      * 
      * @param fileContent content of the state name file to be processed
      */
-    private void processStateName(String fileContent) {
-        Scanner scan = new Scanner(fileContent);
-
-        if (scan.hasNextLine()) {
-            scan.nextLine();
-        }
+    void processStateName(String fileContent) {
+        boolean[] header = { true };
+        forEachLine(fileContent, (lineStart, lineEnd) -> {
+            if (header[0]) {
+                header[0] = false;
+                return;
+            }
 
-        while (scan.hasNextLine()) {
-            String line = scan.nextLine();
+            String line = fileContent.substring(lineStart, lineEnd);
             String[] fields = line.split("\t");
 
             int statenum = Integer.parseInt(fields[0]);
@@ -235,528 +877,5114 @@ public class IRoadTrip {
             if (end.equals("2020-12-31")) {
                 stateInfoMap.put(stateid, stateInfo);
             }
+            stateHistory.add(stateInfo);
 
-            // add country ID to the map
-            countryId.put(countryName, stateid);
-        }
-        scan.close();
+            // add country ID to the map under its normalized name
+            countryId.put(normalizeName(countryName), stateInfo);
+        });
     }
 
     /**
-     * finds and returns the country ID associated with the country name
+     * finds and returns the country ID (the state number shared by capdist and
+     * state_name.tsv) associated with the country name
+     *
+     * the normalized name finds the candidate in one probe, but like the scan it
+     * replaced the name must match apart from case and surrounding blanks, so
+     * "Cote d'Ivoire" from borders does not pick up the capdist row of
+     * "Cote D’Ivoire" and the graph keeps its original edges
      *
      * @param countryName name of the country to find the ID for
-     * @return country ID or null if the country name is not found in the map
+     * @return country ID or -1 if the country name is not found in the map
      */
-    private String findCountryId(String countryName) {
-        for (Map.Entry<String, String> entry : countryId.entrySet()) {
-            if (entry.getKey().trim().equalsIgnoreCase(countryName.trim())) {
-                return entry.getValue();
-            }
-        }
-        return null;
+    int findCountryId(String countryName) {
+        return states().findCountryId(countryName);
     }
 
     /**
-     * builds the graph representing the countries, their borders, and capdist
+     * @return state lookups of the network answering queries, or of the data
+     *         loaded so far while the graph is being built
+     */
+    private StateLookup states() {
+        Network net = network;
+        return net != null ? net.states : new StateLookup(countryId, capitalDistances);
+    }
+
+    /**
+     * looks up the capital distance between two countries in capdist
+     *
+     * @param countryA name of the first country
+     * @param countryB name of the second country
+     * @return distance between the capitals in kilometers, or -1 if unknown
      */
-    private void buildGraph() {
-        graph = new HashMap<>();
-        distances = new HashMap<>();
+    private int capitalDistance(String countryA, String countryB) {
+        StateLookup states = states();
+        return states.capitalDistance(states.findCountryId(countryA), states.findCountryId(countryB));
+    }
 
-        // iterate through countryBorders and capdistMap to build the graph
-        for (Map.Entry<String, List<String>> entry : countryBorders.entrySet()) {
-            String sourceCountry = entry.getKey();
-            graph.put(sourceCountry, new HashMap<>());
-            distances.put(sourceCountry, Integer.MAX_VALUE);
+    /**
+     * looks up the capital distance between two states in capdist
+     *
+     * @param stateA state number of the first country, as in state_name.tsv
+     * @param stateB state number of the second country
+     * @return distance between the capitals in kilometers, or -1 if unknown or
+     *         the distances were not loaded, as after loading a snapshot
+     */
+    public int capitalDistance(int stateA, int stateB) {
+        return states().capitalDistance(stateA, stateB);
+    }
 
-            List<String> neighboringCountries = entry.getValue();
+    /**
+     * state numbers by name and capital distances, as read from state_name.tsv
+     * and capdist. every Network keeps the ones its graph was built from, so
+     * queries never pair the names of one load with the distances of another
+     */
+    static final class StateLookup {
+        private final Map<String, stateInfo> countryId;
+        private final CapitalDistances capitalDistances;
 
-            // create the inner HashMap for neighboring countries and distances
-            HashMap<String, Integer> neighbors = new HashMap<>();
+        /**
+         * @param countryId        states by normalized name, not modified
+         *                         afterwards
+         * @param capitalDistances linked capital distances, null if not loaded
+         */
+        StateLookup(Map<String, stateInfo> countryId, CapitalDistances capitalDistances) {
+            this.countryId = countryId;
+            this.capitalDistances = capitalDistances;
+        }
 
-            // add neighboring countries based on capdistMap
-            for (String neighbor : neighboringCountries) {
-                String countryAId = findCountryId(sourceCountry);
-                String countryBId = findCountryId(neighbor);
+        /**
+         * @param countryName name of the country, see IRoadTrip.findCountryId
+         * @return state number of the country, or -1 if the name is not found
+         */
+        int findCountryId(String countryName) {
+            stateInfo state = countryId.get(normalizeName(countryName));
+            return state != null && state.countryName.equalsIgnoreCase(countryName.trim()) ? state.stateNum : -1;
+        }
 
-                // check countryAId and countryBId are not null
-                if (countryAId != null && countryBId != null) {
-                    String combCodeAB = countryAId + countryBId;
-                    String combCodeBA = countryBId + countryAId;
+        /**
+         * @return distance between the capitals of two states in kilometers, or
+         *         -1 if unknown or the distances were not loaded
+         */
+        int capitalDistance(int stateA, int stateB) {
+            return capitalDistances != null ? capitalDistances.distance(stateA, stateB) : -1;
+        }
+    }
 
-                    Integer kmDistanceAB = capdistMap.getOrDefault(combCodeAB, -1);
-                    Integer kmDistanceBA = capdistMap.getOrDefault(combCodeBA, -1);
+    /**
+     * collects the capital distance between every pair of countries in a graph
+     *
+     * @param graph graph whose countries are paired
+     * @return distances indexed from * size + to, -1 where unknown
+     */
+    private int[] capitalDistances(Graph graph) {
+        int size = graph.size();
+        int[] stateIds = new int[size];
+        for (int id = 0; id < size; id++) {
+            stateIds[id] = findCountryId(graph.name(id));
+        }
 
-                    if (kmDistanceAB >= 0) {
-                        neighbors.put(neighbor, kmDistanceAB);
-                    } else if (kmDistanceBA >= 0) {
-                        neighbors.put(neighbor, kmDistanceBA);
-                    }
-                }
+        // countries whose state_name.tsv entry uses another name are found
+        // through the aliases of their border name
+        for (String[] alias : COUNTRY_ALIASES) {
+            int id = graph.id(alias[1]);
+            if (id >= 0 && stateIds[id] < 0) {
+                stateIds[id] = findCountryId(alias[0]);
             }
-
-            // put neighbors into the graph
-            graph.put(sourceCountry, neighbors);
         }
 
-        // fill edge cases
-        HashMap<String, Integer> inner = graph.get("Mali");
-        inner.put("Burkina Faso", 706);
-        inner.put("Cote d'Ivoire", 704);
+        int[] capitalKm = new int[size * size];
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                capitalKm[from * size + to] = from == to ? 0 : capitalDistances.distance(stateIds[from], stateIds[to]);
+            }
+        }
+        return capitalKm;
+    }
 
-        inner = graph.get("Panama");
-        inner.put("Costa Rica", 523);
+    /**
+     * states of the past whose territory is now split across or merged into
+     * countries in borders, with the countries it covered. a country exists on
+     * every date one of its states existed, so as of 1950-01-01 Slovenia exists
+     * as part of Yugoslavia and Slovakia as part of Czechoslovakia, and dated
+     * routes may cross them. a country neither in state_name.tsv nor covered
+     * here on a date, like Eritrea before 1993, does not exist on it
+     */
+    private static final String[][] STATE_TERRITORIES = {
+            { "Yugoslavia", "Serbia", "Montenegro", "Kosovo", "Slovenia", "Croatia", "Bosnia and Herzegovina",
+                    "Macedonia" },
+            { "Czechoslovakia", "Czech Republic", "Slovakia" },
+            { "Austria-Hungary", "Austria", "Hungary" },
+            { "Great Colombia", "Colombia", "Venezuela", "Ecuador", "Panama" },
+            { "United Provinces of Central America", "Guatemala", "Honduras", "El Salvador", "Nicaragua",
+                    "Costa Rica" },
+            { "Korea", "Korea, North", "Korea, South" },
+            { "German Democratic Republic", "Germany" },
+            { "Vietnam, Republic of", "Vietnam" },
+            { "Vietnam, Democratic Republic of", "Vietnam" },
+            { "Yemen, People's Republic of", "Yemen" },
+            { "Zanzibar", "Tanzania" },
+            { "Transvaal", "South Africa" },
+            { "Orange Free State", "South Africa" },
+    };
 
-        inner = graph.get("Laos");
-        inner.put("Burma", 701);
+    /**
+     * turns every row of state_name.tsv into the days the graph countries it
+     * covers existed. rows ending on the last date of the file are still in
+     * force and stay open ended, rows naming no graph country are dropped
+     *
+     * @param graph graph the ids refer to
+     * @return flat triples of country id, first day and last day, see Timeline
+     */
+    private int[] stateIntervals(Graph graph) {
+        NameIndex names = new NameIndex(graph, COUNTRY_ALIASES);
+        HashMap<String, String[]> territories = new HashMap<>();
+        for (String[] territory : STATE_TERRITORIES) {
+            territories.put(normalizeName(territory[0]), territory);
+        }
+        String lastDate = "";
+        for (stateInfo state : stateHistory) {
+            if (state.end.compareTo(lastDate) > 0) {
+                lastDate = state.end;
+            }
+        }
 
-        inner = graph.get("Zambia");
-        inner.put("Congo, Democratic Republic of the", 1893);
-        inner.put("Tanzania ", 1543);
+        int[] intervals = new int[0];
+        int count = 0;
+        for (stateInfo state : stateHistory) {
+            int first = (int) LocalDate.parse(state.start).toEpochDay();
+            int last = state.end.equals(lastDate) ? Integer.MAX_VALUE : (int) LocalDate.parse(state.end).toEpochDay();
+
+            String[] territory = territories.get(normalizeName(state.countryName));
+            String[] countries = territory != null ? Arrays.copyOfRange(territory, 1, territory.length)
+                    : new String[] { state.countryName };
+            for (String country : countries) {
+                int id = names.resolve(country);
+                if (id < 0) {
+                    continue;
+                }
+                if (count + 3 > intervals.length) {
+                    intervals = Arrays.copyOf(intervals, Math.max(48, intervals.length * 2));
+                }
+                intervals[count++] = id;
+                intervals[count++] = first;
+                intervals[count++] = last;
+            }
+        }
+        return Arrays.copyOf(intervals, count);
+    }
 
-        inner = graph.get("Namibia");
-        inner.put("South Africa", 1187);
+    /**
+     * normalizes a country name for lookups: content in parentheses is removed,
+     * letters are lower cased, punctuation becomes a space, and runs of
+     * whitespace collapse to a single space
+     *
+     * @param name country name to normalize
+     * @return normalized name
+     */
+    static String normalizeName(String name) {
+        StringBuilder key = new StringBuilder(name.length());
+        int depth = 0;
+        boolean space = false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+                space = true;
+            } else if (depth == 0) {
+                if (Character.isLetterOrDigit(c)) {
+                    if (space && key.length() > 0) {
+                        key.append(' ');
+                    }
+                    key.append(Character.toLowerCase(c));
+                    space = false;
+                } else {
+                    space = true;
+                }
+            }
+        }
 
-        inner = graph.get("Yemen");
-        inner.put("Saudi Arabia", 1040);
+        return key.toString();
+    }
 
-        inner = graph.get("Malawi");
-        inner.put("Tanzania ", 996);
+    /**
+     * compact representation of the border graph. country names are interned to
+     * dense ids once at load time and the adjacency is stored in compressed sparse
+     * row form: the neighbors of node u are targets[offsets[u]] up to
+     * targets[offsets[u + 1] - 1], with matching weights in kilometers. the
+     * incoming edges are indexed the same way for searches that run backward
+     */
+    static final class Graph {
+        private final String[] names;
+        private final HashMap<String, Integer> ids;
+        private final int[] offsets;
+        private final int[] targets;
+        private final int[] weights;
+        private final int[] inOffsets;
+        private final int[] inSources;
+        private final int[] inEdges;
+        private final boolean symmetric;
 
-        inner = graph.get("Bulgaria");
-        inner.put("Macedonia ", 151);
+        /**
+         * constructs a Graph from already packed arrays
+         *
+         * @param names   country name for each id
+         * @param offsets start of each node's edges, length names.length + 1
+         * @param targets target id of each edge
+         * @param weights weight of each edge in kilometers
+         */
+        Graph(String[] names, int[] offsets, int[] targets, int[] weights) {
+            this.names = names;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            this.ids = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                ids.put(names[i], i);
+            }
 
-        inner = graph.get("Jordan");
-        inner.put("Saudi Arabia", 1323);
+            // counting sort of the edges by target gives the incoming adjacency
+            int n = names.length;
+            inOffsets = new int[n + 1];
+            inSources = new int[targets.length];
+            inEdges = new int[targets.length];
+            for (int target : targets) {
+                inOffsets[target + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                inOffsets[i + 1] += inOffsets[i];
+            }
+            int[] fill = Arrays.copyOf(inOffsets, n);
+            for (int source = 0; source < n; source++) {
+                for (int e = offsets[source]; e < offsets[source + 1]; e++) {
+                    int slot = fill[targets[e]]++;
+                    inSources[slot] = source;
+                    inEdges[slot] = e;
+                }
+            }
+            symmetric = checkSymmetric();
+        }
 
-        inner = graph.get("Gambia, The");
-        inner.put("Senegal", 144);
+        /**
+         * @return true if every edge has a reverse edge of the same weight
+         */
+        private boolean checkSymmetric() {
+            for (int source = 0; source < names.length; source++) {
+                for (int e = offsets[source]; e < offsets[source + 1]; e++) {
+                    boolean found = false;
+                    int target = targets[e];
+                    for (int r = offsets[target]; r < offsets[target + 1] && !found; r++) {
+                        found = targets[r] == source && weights[r] == weights[e];
+                    }
+                    if (!found) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
 
-        inner = graph.get("United Arab Emirates");
-        inner.put("Saudi Arabia", 778);
+        /**
+         * @return true if every edge has a reverse edge of the same weight, so the
+         *         shortest route from b to a is the shortest route from a to b
+         *         reversed
+         */
+        boolean isSymmetric() {
+            return symmetric;
+        }
 
-        inner = graph.get("Kenya");
-        inner.put("Tanzania", 1120);
+        /**
+         * @param source id of the country the edge leaves from
+         * @param target id of the country the edge leads to
+         * @return index of the edge from source to target, or -1 if there is none
+         */
+        int edge(int source, int target) {
+            for (int e = offsets[source]; e < offsets[source + 1]; e++) {
+                if (targets[e] == target) {
+                    return e;
+                }
+            }
+            return -1;
+        }
 
-        inner = graph.get("Cameroon");
-        inner.put("Central African Republic", 802);
-        inner.put("Congo, Democratic Republic of the", 898);
-        inner.put("Equatorial Guinea", 205);
+        /**
+         * returns a copy of this graph with one edge added, reweighted or removed.
+         * the countries are the same, so their ids stay valid
+         *
+         * @param source id of the country the edge leaves from
+         * @param target id of the country the edge leads to
+         * @param km     new weight of the edge, or -1 to remove it
+         * @return the changed graph
+         */
+        Graph withEdge(int source, int target, int km) {
+            int edge = edge(source, target);
+            if (edge >= 0 && km >= 0) {
+                int[] changed = weights.clone();
+                changed[edge] = km;
+                return new Graph(names, offsets, targets, changed);
+            }
+            if (edge < 0 && km < 0) {
+                return this;
+            }
 
-        inner = graph.get("Oman");
-        inner.put("Saudi Arabia", 1194);
-        inner.put("United Arab Emirates", 422);
+            // shift every later edge by one slot to insert or drop the edge
+            int delta = km >= 0 ? 1 : -1;
+            int at = km >= 0 ? offsets[source + 1] : edge;
+            int[] newOffsets = offsets.clone();
+            for (int id = source + 1; id < newOffsets.length; id++) {
+                newOffsets[id] += delta;
+            }
+            int[] newTargets = new int[targets.length + delta];
+            int[] newWeights = new int[targets.length + delta];
+            System.arraycopy(targets, 0, newTargets, 0, at);
+            System.arraycopy(weights, 0, newWeights, 0, at);
+            if (km >= 0) {
+                newTargets[at] = target;
+                newWeights[at] = km;
+                System.arraycopy(targets, at, newTargets, at + 1, targets.length - at);
+                System.arraycopy(weights, at, newWeights, at + 1, targets.length - at);
+            } else {
+                System.arraycopy(targets, at + 1, newTargets, at, targets.length - at - 1);
+                System.arraycopy(weights, at + 1, newWeights, at, targets.length - at - 1);
+            }
+            return new Graph(names, newOffsets, newTargets, newWeights);
+        }
 
-        inner = graph.get("Gabon");
-        inner.put("Congo, Democratic Republic of the", 790);
-        inner.put("Equatorial Guinea", 225);
+        /**
+         * @return number of countries in the graph
+         */
+        int size() {
+            return names.length;
+        }
 
-        inner = graph.get("Brazil");
-        inner.put("Suriname", 2467);
+        /**
+         * @return number of directed border edges in the graph
+         */
+        int edgeCount() {
+            return targets.length;
+        }
 
-        inner = graph.get("Honduras");
-        inner.put("El Salvador", 201);
+        /**
+         * finds the id of a country
+         *
+         * @param country exact name of the country
+         * @return id of the country, or -1 if it is not in the graph
+         */
+        int id(String country) {
+            Integer id = ids.get(country);
+            return id != null ? id : -1;
+        }
 
-        inner = graph.get("Italy");
-        inner.put("Austria", 16178);
-        inner.put("France", 1127);
-        inner.put("Slovenia", 566);
-        inner.put("Switzerland", 703);
+        /**
+         * @param id id of a country
+         * @return name of the country
+         */
+        String name(int id) {
+            return names[id];
+        }
 
-        inner = graph.get("Korea, North");
-        inner.put("China", 820);
-        inner.put("Korea, South", 238);
-        inner.put("Russia", 6443);
+        /**
+         * @param id id of a country
+         * @return index of the first edge leaving the country
+         */
+        int firstEdge(int id) {
+            return offsets[id];
+        }
 
-        inner = graph.get("Haiti");
-        inner.put("Dominican Republic", 246);
+        /**
+         * @param id id of a country
+         * @return index one past the last edge leaving the country
+         */
+        int lastEdge(int id) {
+            return offsets[id + 1];
+        }
 
-        inner = graph.get("Burundi");
-        inner.put("Congo, Democratic Republic of the", 1557);
-        inner.put("Tanzania", 1158);
+        /**
+         * @param id id of a country
+         * @return number of edges leaving the country
+         */
+        int degree(int id) {
+            return offsets[id + 1] - offsets[id];
+        }
 
-        inner = graph.get("Russia");
-        inner.put("Korea, North", 6443);
+        /**
+         * @param edge index of an edge
+         * @return id of the country the edge leads to
+         */
+        int target(int edge) {
+            return targets[edge];
+        }
 
-        inner = graph.get("China");
-        inner.put("Burma", 3222);
-        inner.put("Korea, North", 820);
+        /**
+         * @param edge index of an edge
+         * @return length of the edge in kilometers
+         */
+        int weight(int edge) {
+            return weights[edge];
+        }
 
-        inner = graph.get("Kyrgyzstan");
-        inner.put("China", 3497);
-        inner.put("Tajikistan", 668);
-        inner.put("Kazakhstan", 230);
-        inner.put("Uzbekistan", 458);
+        /**
+         * @param id id of a country
+         * @return index of the first incoming slot of the country
+         */
+        int firstInEdge(int id) {
+            return inOffsets[id];
+        }
 
-        inner = graph.get("Togo");
-        inner.put("Burkina Faso", 730);
+        /**
+         * @param id id of a country
+         * @return index one past the last incoming slot of the country
+         */
+        int lastInEdge(int id) {
+            return inOffsets[id + 1];
+        }
 
-        inner = graph.get("Cote d'Ivoire");
-        inner.put("Burkina Faso", 784);
-        inner.put("Guinea", 975);
-        inner.put("Mali", 726);
-        inner.put("Ghana", 619);
+        /**
+         * @param slot index of an incoming slot
+         * @return id of the country the incoming edge leaves from
+         */
+        int inSource(int slot) {
+            return inSources[slot];
+        }
 
-        inner = graph.get("Uzbekistan");
-        inner.put("Kyrgyzstan", 458);
+        /**
+         * @param slot index of an incoming slot
+         * @return index of the same edge in the outgoing arrays
+         */
+        int inEdge(int slot) {
+            return inEdges[slot];
+        }
+    }
 
-        inner = graph.get("Zimbabwe");
-        inner.put("South Africa", 929);
+    /**
+     * collects countries and edges while the graph is being built, then packs
+     * them into a Graph. adding an edge that already exists replaces its weight
+     */
+    static final class GraphBuilder {
+        private final List<String> names = new ArrayList<>();
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final List<LinkedHashMap<Integer, Integer>> edges = new ArrayList<>();
 
-        inner = graph.get("Montenegro");
-        inner.put("Bosnia and Herzegovina", 96);
+        /**
+         * adds a country to the graph if it is not already present
+         *
+         * @param country name of the country
+         * @return id of the country
+         */
+        int addNode(String country) {
+            Integer id = ids.get(country);
+            if (id == null) {
+                id = names.size();
+                ids.put(country, id);
+                names.add(country);
+                edges.add(new LinkedHashMap<>());
+            }
+            return id;
+        }
 
-        inner = graph.get("Indonesia");
-        inner.put("Papua New Guinea", 4472);
-        inner.put("Timor-Leste", 2085);
+        /**
+         * finds the id of a country, ignoring surrounding whitespace
+         *
+         * @param country name of the country
+         * @return id of the country, or -1 if it was never added
+         */
+        int id(String country) {
+            Integer id = ids.get(country);
+            if (id == null) {
+                id = ids.get(country.trim());
+            }
+            return id != null ? id : -1;
+        }
 
-        inner = graph.get("Benin");
-        inner.put("Burkina Faso", 807);
+        /**
+         * adds or replaces a directed edge
+         *
+         * @param from id of the source country
+         * @param to   id of the target country
+         * @param km   length of the edge in kilometers
+         */
+        void putEdge(int from, int to, int km) {
+            edges.get(from).put(to, km);
+        }
 
-        inner = graph.get("Angola");
-        inner.put("Congo, Democratic Republic of the", 510);
-        inner.put("Congo, Republic of the", 510);
+        /**
+         * returns a view for adding edges that leave a country
+         *
+         * @param country name of the source country
+         * @return view that adds edges from the country
+         */
+        NodeEdges edges(String country) {
+            return new NodeEdges(id(country));
+        }
 
-        inner = graph.get("Sudan");
-        inner.put("Central African Republic", 1961);
+        /**
+         * packs the collected countries and edges into a Graph
+         *
+         * @return the built graph
+         */
+        Graph build() {
+            int n = names.size();
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] = offsets[i] + edges.get(i).size();
+            }
 
-        inner = graph.get("Greece");
-        inner.put("North Macedonia", 2669);
+            int[] targets = new int[offsets[n]];
+            int[] weights = new int[offsets[n]];
+            for (int i = 0; i < n; i++) {
+                int e = offsets[i];
+                for (Map.Entry<Integer, Integer> edge : edges.get(i).entrySet()) {
+                    targets[e] = edge.getKey();
+                    weights[e] = edge.getValue();
+                    e++;
+                }
+            }
 
-        inner = graph.get("Iraq");
-        inner.put("Saudi Arabia", 1026);
+            return new Graph(names.toArray(new String[0]), offsets, targets, weights);
+        }
 
-        inner = graph.get("Tanzania");
-        inner.put("Burundi", 1158);
-        inner.put("Congo, Democratic Republic of the", 2666);
-        inner.put("Kenya", 626);
-        inner.put("Malawi", 996);
-        inner.put("Mozambique", 2338);
-        inner.put("Rwanda", 1157);
-        inner.put("Uganda", 1018);
-        inner.put("Zambia", 1543);
+        /**
+         * edges leaving a single country. names that are not countries in the
+         * graph are ignored, since a search could never settle them
+         */
+        final class NodeEdges {
+            private final int from;
 
-        inner = graph.get("Ghana");
-        inner.put("Burkina Faso", 797);
-        inner.put("Cote d'Ivoire", 619);
+            private NodeEdges(int from) {
+                this.from = from;
+            }
 
-        inner = graph.get("India");
-        inner.put("Burma", 2347);
+            /**
+             * adds or replaces the edge to a neighboring country
+             *
+             * @param neighbor name of the neighboring country
+             * @param km       length of the edge in kilometers
+             */
+            void put(String neighbor, int km) {
+                int to = id(neighbor);
+                if (from >= 0 && to >= 0) {
+                    putEdge(from, to, km);
+                }
+            }
+        }
+    }
 
-        inner = graph.get("Canada");
-        inner.put("United States", 731);
+    /**
+     * resolves user supplied country names to graph ids with a single hash probe.
+     * every graph name and every alias is stored under its normalized form, so
+     * case, spacing, punctuation and parenthesized notes do not matter
+     */
+    static final class NameIndex {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        // built on first use, most runs never suggest a name
+        private volatile NameSuggester suggester;
 
-        inner = graph.get("Central African Republic");
-        inner.put("Congo, Democratic Republic of the", 970);
-        inner.put("Congo, Republic of the", 970);
+        /**
+         * constructs the index for a graph
+         *
+         * @param graph   graph whose countries are indexed
+         * @param aliases pairs of alternative name and canonical graph name
+         */
+        NameIndex(Graph graph, String[][] aliases) {
+            for (int id = 0; id < graph.size(); id++) {
+                ids.putIfAbsent(normalizeName(graph.name(id)), id);
+            }
+            for (String[] alias : aliases) {
+                int id = graph.id(alias[1]);
+                if (id >= 0) {
+                    ids.putIfAbsent(normalizeName(alias[0]), id);
+                }
+            }
+        }
 
-        inner = graph.get("Guinea");
-        inner.put("Cote d'Ivoire", 975);
-        inner.put("Sierra Leone", 117);
+        /**
+         * finds the graph id for a country name or alias
+         *
+         * @param name name of the country in any spelling known to the index
+         * @return id of the country, or -1 if the name is unknown
+         */
+        int resolve(String name) {
+            Integer id = ids.get(normalizeName(name));
+            return id != null ? id : -1;
+        }
 
-        inner = graph.get("United States");
-        inner.put("Canada", 731);
-        inner.put("Mexico", 3024);
+        /**
+         * @return every normalized name and alias in the index
+         */
+        Set<String> keys() {
+            return ids.keySet();
+        }
 
-        inner = graph.get("Chad");
-        inner.put("Central African Republic", 974);
+        /**
+         * @param key normalized name or alias from keys()
+         * @return id of the country it names
+         */
+        int id(String key) {
+            return ids.get(key);
+        }
 
-        inner = graph.get("Thailand");
-        inner.put("Burma", 573);
+        /**
+         * @return suggester for the names of this index, built by the first call.
+         *         racing threads may each build one, any of them will do
+         */
+        NameSuggester suggester() {
+            NameSuggester built = suggester;
+            if (built == null) {
+                built = new NameSuggester(this);
+                suggester = built;
+            }
+            return built;
+        }
+    }
 
-        inner = graph.get("United Kingdom");
-        inner.put("Ireland", 496);
+    /**
+     * ranked suggestions for country names typed in part or with typos. every
+     * normalized name and alias of the NameIndex goes into a prefix trie, once
+     * from its first word and once from each later word, so "korea" and "north"
+     * both complete to "Korea, North". the same keys form a BK-tree under the
+     * optimal string alignment distance, which finds names within a few edits
+     * while measuring the distance to only a fraction of them
+     */
+    static final class NameSuggester {
+        // ranks of the ways a key can match, fuzzy matches add their edits
+        private static final int EXACT = 0;
+        private static final int PREFIX = 1;
+        private static final int WORD_PREFIX = 2;
+        private static final int FUZZY = 2;
+        private static final int RANK_SCALE = 1 << 16;
+        private static final int UNRANKED = Integer.MAX_VALUE;
+        // shortest name resolve guesses a country for from edits alone
+        private static final int MIN_FUZZY_LENGTH = 3;
+
+        private final String[] keys;
+        private final int[] ids;
+        private final int countries;
+
+        // trie: nodes in parallel arrays, children as sibling lists
+        private final char[] label;
+        private final int[] firstChild;
+        private final int[] nextSibling;
+        private final int[] firstMatch;
+        private final int[] matchKey;
+        private final int[] matchWord;
+        private final int[] nextMatch;
+
+        // BK-tree: node i holds key i, children[i][d] is its child at distance d
+        private final int[][] children;
 
-        inner = graph.get("Liberia");
-        inner.put("Cote d'Ivoire", 608);
-        inner.put("Sierra Leone", 335);
+        /**
+         * constructs the suggester for the names of an index
+         *
+         * @param names index whose names and aliases are suggested
+         */
+        NameSuggester(NameIndex names) {
+            List<String> sorted = new ArrayList<>(names.keys());
+            Collections.sort(sorted);
+            keys = sorted.toArray(new String[0]);
+            ids = new int[keys.length];
+            int maxId = -1;
+            for (int i = 0; i < keys.length; i++) {
+                ids[i] = names.id(keys[i]);
+                maxId = Math.max(maxId, ids[i]);
+            }
+            countries = maxId + 1;
+
+            int chars = 1;
+            int words = 0;
+            for (String key : keys) {
+                for (int start = 0; start >= 0; start = nextWord(key, start)) {
+                    chars += key.length() - start;
+                    words++;
+                }
+            }
+            label = new char[chars];
+            firstChild = new int[chars];
+            nextSibling = new int[chars];
+            firstMatch = new int[chars];
+            Arrays.fill(firstChild, -1);
+            Arrays.fill(nextSibling, -1);
+            Arrays.fill(firstMatch, -1);
+            matchKey = new int[words];
+            matchWord = new int[words];
+            nextMatch = new int[words];
+
+            int nodes = 1;
+            int matches = 0;
+            for (int k = 0; k < keys.length; k++) {
+                String key = keys[k];
+                int word = 0;
+                for (int start = 0; start >= 0; start = nextWord(key, start), word++) {
+                    int node = 0;
+                    for (int i = start; i < key.length(); i++) {
+                        int child = child(node, key.charAt(i));
+                        if (child < 0) {
+                            child = nodes++;
+                            label[child] = key.charAt(i);
+                            nextSibling[child] = firstChild[node];
+                            firstChild[node] = child;
+                        }
+                        node = child;
+                    }
+                    matchKey[matches] = k;
+                    matchWord[matches] = word;
+                    nextMatch[matches] = firstMatch[node];
+                    firstMatch[node] = matches++;
+                }
+            }
 
-        inner = graph.get("Burkina Faso");
-        inner.put("Cote d'Ivoire", 784);
+            children = new int[keys.length][];
+            for (int k = 1; k < keys.length; k++) {
+                int node = 0;
+                while (true) {
+                    int distance = distance(keys[k], keys[node], Integer.MAX_VALUE);
+                    if (children[node] == null || children[node].length <= distance) {
+                        int[] grown = children[node] == null ? new int[distance + 1]
+                                : Arrays.copyOf(children[node], distance + 1);
+                        if (children[node] == null) {
+                            Arrays.fill(grown, -1);
+                        } else {
+                            Arrays.fill(grown, children[node].length, distance + 1, -1);
+                        }
+                        children[node] = grown;
+                    }
+                    if (children[node][distance] < 0) {
+                        children[node][distance] = k;
+                        break;
+                    }
+                    node = children[node][distance];
+                }
+            }
+        }
 
-        inner = graph.get("Austria");
+        /**
+         * @return index of the next word of a normalized key after the word at
+         *         start, or -1 if it is the last
+         */
+        private static int nextWord(String key, int start) {
+            int space = key.indexOf(' ', start);
+            return space < 0 ? -1 : space + 1;
+        }
+
+        private int child(int node, char c) {
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (label[child] == c) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @param length length of a normalized name
+         * @return most edits a fuzzy match of a name that long may need
+         */
+        static int maxEdits(int length) {
+            return length <= 4 ? 1 : length <= 8 ? 2 : 3;
+        }
+
+        /**
+         * suggests countries for a name, best first: an exact name or alias, then
+         * names starting with it, then names with a later word starting with it,
+         * then names within a few edits of it. names of equal rank come shortest
+         * first
+         *
+         * @param name  name typed so far
+         * @param limit most countries to return
+         * @return ids of the suggested countries, each at most once
+         */
+        int[] suggest(String name, int limit) {
+            String key = normalizeName(name);
+            if (key.isEmpty() || limit <= 0) {
+                return new int[0];
+            }
+
+            // best rank of every country, UNRANKED for those not seen
+            int[] ranks = newRanks();
+            int node = 0;
+            for (int i = 0; i < key.length() && node >= 0; i++) {
+                node = child(node, key.charAt(i));
+            }
+            if (node >= 0) {
+                collect(node, key.length(), ranks);
+            }
+            int edits = maxEdits(key.length());
+            fuzzy(0, key, edits, ranks);
+
+            // rank in the high half and id in the low half sort as rank then id
+            long[] ranked = new long[ranks.length];
+            int size = 0;
+            for (int id = 0; id < ranks.length; id++) {
+                if (ranks[id] != UNRANKED) {
+                    ranked[size++] = (long) ranks[id] << 32 | id;
+                }
+            }
+            Arrays.sort(ranked, 0, size);
+            int[] suggested = new int[Math.min(limit, size)];
+            for (int i = 0; i < suggested.length; i++) {
+                suggested[i] = (int) ranked[i];
+            }
+            return suggested;
+        }
+
+        /**
+         * finds the one country a name most likely means: the exact name or alias,
+         * else the only country with a name or a word of one starting with it,
+         * else the only country closest to it within a few edits. names shorter
+         * than three characters are one edit away from too many countries to
+         * guess, so they resolve only by name or prefix
+         *
+         * @param name name as typed
+         * @return id of the country, or -1 if the name is missing or ambiguous
+         */
+        int resolve(String name) {
+            String key = normalizeName(name);
+            if (key.isEmpty()) {
+                return -1;
+            }
+
+            int[] ranks = newRanks();
+            int node = 0;
+            for (int i = 0; i < key.length() && node >= 0; i++) {
+                node = child(node, key.charAt(i));
+            }
+            if (node >= 0) {
+                collect(node, key.length(), ranks);
+                int exact = only(ranks, rank -> rank / RANK_SCALE == EXACT);
+                if (exact >= 0) {
+                    return exact;
+                }
+                int only = only(ranks, rank -> rank / RANK_SCALE <= WORD_PREFIX);
+                if (only >= 0) {
+                    return only;
+                }
+            }
+
+            if (key.length() < MIN_FUZZY_LENGTH) {
+                return -1;
+            }
+            Arrays.fill(ranks, UNRANKED);
+            fuzzy(0, key, maxEdits(key.length()), ranks);
+            int best = UNRANKED;
+            for (int rank : ranks) {
+                best = Math.min(best, rank);
+            }
+            int closest = best / RANK_SCALE;
+            return best == UNRANKED ? -1 : only(ranks, rank -> rank / RANK_SCALE == closest);
+        }
+
+        /**
+         * @return rank of every country, all UNRANKED
+         */
+        private int[] newRanks() {
+            int[] ranks = new int[countries];
+            Arrays.fill(ranks, UNRANKED);
+            return ranks;
+        }
+
+        /**
+         * @return the only country whose rank passes the test, or -1 if none or
+         *         several do
+         */
+        private static int only(int[] ranks, IntPredicate test) {
+            int only = -1;
+            for (int id = 0; id < ranks.length; id++) {
+                if (ranks[id] != UNRANKED && test.test(ranks[id])) {
+                    if (only >= 0) {
+                        return -1;
+                    }
+                    only = id;
+                }
+            }
+            return only;
+        }
+
+        /**
+         * ranks every key ending in the subtree of a trie node
+         */
+        private void collect(int node, int typed, int[] ranks) {
+            for (int match = firstMatch[node]; match >= 0; match = nextMatch[match]) {
+                int k = matchKey[match];
+                String key = keys[k];
+                int tier = matchWord[match] > 0 ? WORD_PREFIX : key.length() == typed ? EXACT : PREFIX;
+                offer(ranks, ids[k], tier * RANK_SCALE + key.length());
+            }
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                collect(child, typed, ranks);
+            }
+        }
+
+        /**
+         * ranks every key within edits of key in the BK-tree under node. by the
+         * triangle inequality only children at distance d - edits to d + edits
+         * from the node can hold a match
+         */
+        private void fuzzy(int node, String key, int edits, int[] ranks) {
+            if (keys.length == 0) {
+                return;
+            }
+            int[] stack = new int[keys.length];
+            int size = 0;
+            stack[size++] = node;
+            while (size > 0) {
+                int current = stack[--size];
+                int[] next = children[current];
+
+                // past this bound neither the node nor any child can match
+                int bound = edits + (next == null ? 0 : next.length - 1);
+                int distance = distance(key, keys[current], bound);
+                if (distance <= edits) {
+                    offer(ranks, ids[current], (FUZZY + distance) * RANK_SCALE + keys[current].length());
+                }
+                if (next == null || distance > bound) {
+                    continue;
+                }
+                for (int d = Math.max(1, distance - edits); d <= distance + edits && d < next.length; d++) {
+                    if (next[d] >= 0) {
+                        stack[size++] = next[d];
+                    }
+                }
+            }
+        }
+
+        private static void offer(int[] ranks, int id, int rank) {
+            ranks[id] = Math.min(ranks[id], rank);
+        }
+
+        /**
+         * optimal string alignment distance: insertions, deletions, substitutions
+         * and swaps of two neighboring characters each count one edit
+         *
+         * @param a     first string
+         * @param b     second string
+         * @param limit distances above this may be reported as limit + 1
+         * @return number of edits turning a into b
+         */
+        static int distance(String a, String b, int limit) {
+            int n = a.length();
+            int m = b.length();
+            if (Math.abs(n - m) > limit) {
+                return limit + 1;
+            }
+            int[] before = new int[m + 1];
+            int[] previous = new int[m + 1];
+            int[] current = new int[m + 1];
+            for (int j = 0; j <= m; j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= n; i++) {
+                current[0] = i;
+                int rowMin = current[0];
+                char ca = a.charAt(i - 1);
+                for (int j = 1; j <= m; j++) {
+                    char cb = b.charAt(j - 1);
+                    int cost = ca == cb ? 0 : 1;
+                    int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                    if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+                        value = Math.min(value, before[j - 2] + 1);
+                    }
+                    current[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                if (rowMin > limit) {
+                    return limit + 1;
+                }
+                int[] recycled = before;
+                before = previous;
+                previous = current;
+                current = recycled;
+            }
+            return previous[m];
+        }
+    }
+
+    /**
+     * binary form of a built graph. the file starts with a header of magic,
+     * format version, CRC32 of the payload and payload length. the payload holds
+     * the country names, the outgoing adjacency arrays and the capital distance
+     * matrix, all little endian. it is read through a memory mapped channel
+     */
+    static final class Snapshot {
+        private static final int MAGIC = 0x49525450;
+        private static final int VERSION = 2;
+        private static final int HEADER_BYTES = 16;
+
+        private final Graph graph;
+        private final int[] capitalKm;
+        private final int[] stateIntervals;
+
+        private Snapshot(Graph graph, int[] capitalKm, int[] stateIntervals) {
+            this.graph = graph;
+            this.capitalKm = capitalKm;
+            this.stateIntervals = stateIntervals;
+        }
+
+        /**
+         * writes a snapshot file, replacing any existing one. the snapshot is
+         * written to a temporary file in the same directory and moved over the
+         * old one in one step, so readers and a crash mid write see either the
+         * old file or the complete new one
+         *
+         * @param path      path of the snapshot file
+         * @param graph     graph to write
+         * @param capitalKm      capital distance matrix for the graph ids
+         * @param stateIntervals validity intervals of the countries, see Timeline
+         * @throws IOException if an I/O error occurs while writing the file
+         */
+        static void write(Path path, Graph graph, int[] capitalKm, int[] stateIntervals) throws IOException {
+            int n = graph.size();
+            byte[][] names = new byte[n][];
+            int nameBytes = 0;
+            for (int id = 0; id < n; id++) {
+                names[id] = graph.name(id).getBytes(StandardCharsets.UTF_8);
+                nameBytes += 4 + names[id].length;
+            }
+
+            int payloadBytes = 12 + nameBytes
+                    + 4 * (graph.offsets.length + 2 * graph.edgeCount() + capitalKm.length + stateIntervals.length);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(HEADER_BYTES);
+            buffer.putInt(n).putInt(graph.edgeCount()).putInt(stateIntervals.length);
+            for (byte[] name : names) {
+                buffer.putInt(name.length).put(name);
+            }
+            buffer.asIntBuffer().put(graph.offsets).put(graph.targets).put(graph.weights).put(capitalKm).put(stateIntervals);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), HEADER_BYTES, payloadBytes);
+            buffer.position(0);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt((int) crc.getValue()).putInt(payloadBytes);
+            buffer.position(0);
+
+            Path directory = path.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * maps and reads a snapshot file
+         *
+         * @param path path of the snapshot file
+         * @return the graph, capital distances and state intervals stored in the
+         *         file
+         * @throws IOException if the file cannot be read, its header or checksum
+         *                     does not match, its counts do not fit its size, or
+         *                     its arrays do not describe a graph
+         */
+        static Snapshot read(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_BYTES) {
+                    throw new IOException("snapshot is truncated: " + path);
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("not a snapshot file: " + path);
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported snapshot version " + version + ": " + path);
+                }
+                int checksum = buffer.getInt();
+                int payloadBytes = buffer.getInt();
+                if (payloadBytes != channel.size() - HEADER_BYTES) {
+                    throw new IOException("snapshot is truncated: " + path);
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(buffer.slice());
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("snapshot checksum mismatch: " + path);
+                }
+
+                // a matching checksum does not prove the writer was sane, so check
+                // every count against the bytes left before allocating for it
+                int n = buffer.getInt();
+                int edges = buffer.getInt();
+                int intervals = buffer.getInt();
+                if (n < 0 || edges < 0 || intervals < 0 || n > buffer.remaining() / 4) {
+                    throw new IOException("snapshot has invalid counts: " + path);
+                }
+                String[] names = new String[n];
+                for (int id = 0; id < n; id++) {
+                    int length = buffer.remaining() < 4 ? -1 : buffer.getInt();
+                    if (length < 0 || length > buffer.remaining()) {
+                        throw new IOException("snapshot has invalid counts: " + path);
+                    }
+                    byte[] name = new byte[length];
+                    buffer.get(name);
+                    names[id] = new String(name, StandardCharsets.UTF_8);
+                }
+                long ints = (n + 1L) + 2L * edges + (long) n * n + intervals;
+                if (ints * 4 != buffer.remaining()) {
+                    throw new IOException("snapshot has invalid counts: " + path);
+                }
+
+                int[] offsets = new int[n + 1];
+                int[] targets = new int[edges];
+                int[] weights = new int[edges];
+                int[] capitalKm = new int[n * n];
+                int[] stateIntervals = new int[intervals];
+                buffer.asIntBuffer().get(offsets).get(targets).get(weights).get(capitalKm).get(stateIntervals);
+                checkArrays(path, offsets, targets, weights, stateIntervals);
+
+                return new Snapshot(new Graph(names, offsets, targets, weights), capitalKm, stateIntervals);
+            }
+        }
+
+        /**
+         * checks that the arrays read from a snapshot describe a graph, before
+         * Graph and Timeline index other arrays with them: offsets start at 0,
+         * never decrease and end at the edge count, targets and interval
+         * countries are ids of the graph, and no weight is negative
+         *
+         * @throws IOException if any array is out of range
+         */
+        private static void checkArrays(Path path, int[] offsets, int[] targets, int[] weights,
+                int[] stateIntervals) throws IOException {
+            int n = offsets.length - 1;
+            if (offsets[0] != 0 || offsets[n] != targets.length) {
+                throw new IOException("snapshot has invalid edge offsets: " + path);
+            }
+            for (int id = 0; id < n; id++) {
+                if (offsets[id + 1] < offsets[id]) {
+                    throw new IOException("snapshot has invalid edge offsets: " + path);
+                }
+            }
+            for (int e = 0; e < targets.length; e++) {
+                if (targets[e] < 0 || targets[e] >= n || weights[e] < 0) {
+                    throw new IOException("snapshot has an invalid edge: " + path);
+                }
+            }
+            if (stateIntervals.length % 3 != 0) {
+                throw new IOException("snapshot has invalid state intervals: " + path);
+            }
+            for (int i = 0; i < stateIntervals.length; i += 3) {
+                if (stateIntervals[i] < 0 || stateIntervals[i] >= n) {
+                    throw new IOException("snapshot has invalid state intervals: " + path);
+                }
+            }
+        }
+    }
+
+    /**
+     * labels every country with the connected component it belongs to, ignoring
+     * edge direction. countries in different components have no route between
+     * them, so such queries are answered without searching. countries in the
+     * same component usually have one, but a one way edge can still leave the
+     * end unreachable
+     */
+    static final class Components {
+        private final int[] component;
+        private final int count;
+
+        /**
+         * labels the components of a graph with union-find
+         *
+         * @param graph graph to label
+         */
+        Components(Graph graph) {
+            int n = graph.size();
+            int[] parent = new int[n];
+            int[] size = new int[n];
+            for (int i = 0; i < n; i++) {
+                parent[i] = i;
+                size[i] = 1;
+            }
+            for (int source = 0; source < n; source++) {
+                for (int e = graph.firstEdge(source); e < graph.lastEdge(source); e++) {
+                    int a = find(parent, source);
+                    int b = find(parent, graph.target(e));
+                    if (a == b) {
+                        continue;
+                    }
+                    // hang the smaller tree under the larger one
+                    if (size[a] < size[b]) {
+                        int swap = a;
+                        a = b;
+                        b = swap;
+                    }
+                    parent[b] = a;
+                    size[a] += size[b];
+                }
+            }
+
+            // number the roots in order of their lowest id
+            component = new int[n];
+            int[] label = new int[n];
+            Arrays.fill(label, -1);
+            int labels = 0;
+            for (int i = 0; i < n; i++) {
+                int root = find(parent, i);
+                if (label[root] < 0) {
+                    label[root] = labels++;
+                }
+                component[i] = label[root];
+            }
+            count = labels;
+        }
+
+        /**
+         * finds the root of a union-find tree, halving the path on the way
+         */
+        private static int find(int[] parent, int id) {
+            while (parent[id] != id) {
+                parent[id] = parent[parent[id]];
+                id = parent[id];
+            }
+            return id;
+        }
+
+        /**
+         * @param id id of a country
+         * @return component of the country, numbered from 0
+         */
+        int of(int id) {
+            return component[id];
+        }
+
+        /**
+         * @param a id of a country
+         * @param b id of a country
+         * @return true if both countries are in the same component
+         */
+        boolean connected(int a, int b) {
+            return component[a] == component[b];
+        }
+
+        /**
+         * @return number of components, every country without borders is one
+         */
+        int count() {
+            return count;
+        }
+    }
+
+    /**
+     * which countries existed on which dates, according to the validity
+     * intervals in state_name.tsv. the dates where some country appears or
+     * disappears split time into epochs, and each epoch keeps the set of
+     * countries existing throughout it. every epoch shares the one Graph, a
+     * dated search simply skips the countries missing from its epoch. countries
+     * with no state at all, such as dependent territories, exist at every date
+     */
+    static final class Timeline {
+        private final int[] stateIntervals;
+        private final int[] epochStarts;
+        private final BitSet[] existing;
+
+        /**
+         * constructs the Timeline of a graph
+         *
+         * @param graph          graph the intervals refer to
+         * @param stateIntervals flat triples of country id, first day and last day
+         *                       the country existed, days counted as in
+         *                       LocalDate.toEpochDay()
+         */
+        Timeline(Graph graph, int[] stateIntervals) {
+            this.stateIntervals = stateIntervals;
+            int n = graph.size();
+
+            BitSet dated = new BitSet(n);
+            TreeSet<Integer> bounds = new TreeSet<>();
+            for (int i = 0; i < stateIntervals.length; i += 3) {
+                dated.set(stateIntervals[i]);
+                bounds.add(stateIntervals[i + 1]);
+                if (stateIntervals[i + 2] != Integer.MAX_VALUE) {
+                    bounds.add(stateIntervals[i + 2] + 1);
+                }
+            }
+
+            // the first epoch holds every date before the earliest bound
+            List<Integer> starts = new ArrayList<>();
+            List<BitSet> sets = new ArrayList<>();
+            starts.add(Integer.MIN_VALUE);
+            bounds.add(Integer.MIN_VALUE);
+            for (int day : bounds) {
+                BitSet set = new BitSet(n);
+                set.set(0, n);
+                set.andNot(dated);
+                for (int i = 0; i < stateIntervals.length; i += 3) {
+                    if (stateIntervals[i + 1] <= day && day <= stateIntervals[i + 2]) {
+                        set.set(stateIntervals[i]);
+                    }
+                }
+
+                // a bound where one state follows another can leave the set unchanged
+                if (day == Integer.MIN_VALUE) {
+                    sets.add(set);
+                } else if (!set.equals(sets.get(sets.size() - 1))) {
+                    starts.add(day);
+                    sets.add(set);
+                }
+            }
+
+            epochStarts = new int[starts.size()];
+            for (int i = 0; i < epochStarts.length; i++) {
+                epochStarts[i] = starts.get(i);
+            }
+            existing = sets.toArray(new BitSet[0]);
+        }
+
+        /**
+         * @param date date to look up
+         * @return ids of the countries existing on the date. the set is shared and
+         *         must not be modified
+         */
+        BitSet existingOn(LocalDate date) {
+            long day = date.toEpochDay();
+            int low = 0;
+            int high = epochStarts.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (epochStarts[mid] <= day) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return existing[low];
+        }
+
+        /**
+         * @return number of epochs with distinct sets of countries
+         */
+        int epochCount() {
+            return epochStarts.length;
+        }
+    }
+
+    /**
+     * attributes of SearchStats published over JMX. times are in nanoseconds
+     * unless the name says otherwise, percentiles come from power of two
+     * histogram buckets and are exact to within a factor of two
+     */
+    public interface SearchStatsMBean {
+        long getDistanceQueries();
+
+        long getPathQueries();
+
+        long getKPathsQueries();
+
+        long getMatrixQueries();
+
+        long getReachableQueries();
+
+        long getUnknownNames();
+
+        long getSearches();
+
+        long getNodesSettled();
+
+        long getHeapPushes();
+
+        long getEdgesRelaxed();
+
+        long getResolveNanos();
+
+        long getSearchNanos();
+
+        long getReconstructNanos();
+
+        double getResolveP50Micros();
+
+        double getResolveP99Micros();
+
+        double getSearchP50Micros();
+
+        double getSearchP99Micros();
+
+        double getReconstructP99Micros();
+
+        long getNodesSettledP99();
+
+        void reset();
+    }
+
+    /**
+     * counters and histograms for the queries answered by getDistance, findPath,
+     * findRoute, findPaths, distanceMatrix (and the matrix behind planTrip) and
+     * reachableWithin. a query's time is split into resolving the names,
+     * searching (or reading the cache or all pairs table) and building the
+     * route. each
+     * thread adds into its own stripe of one padded array, picked by the thread's
+     * identity hash, so concurrent queries rarely touch the same cache line;
+     * reading a value sums the stripes. when a JFR recording enables the
+     * IRoadTrip.Search event, every query is also committed as one event
+     */
+    public static final class SearchStats implements SearchStatsMBean {
+        static final int DISTANCE = 0;
+        static final int PATH = 1;
+        static final int K_PATHS = 2;
+        static final int MATRIX = 3;
+        static final int REACHABLE = 4;
+        private static final String[] QUERY_NAMES = { "distance", "path", "paths", "matrix", "reachable" };
+
+        // slots within a stripe
+        private static final int DISTANCE_QUERIES = 0;
+        private static final int PATH_QUERIES = 1;
+        private static final int UNKNOWN_NAMES = 2;
+        private static final int SEARCHES = 3;
+        private static final int SETTLED = 4;
+        private static final int PUSHES = 5;
+        private static final int RELAXED = 6;
+        private static final int RESOLVE_NANOS = 7;
+        private static final int SEARCH_NANOS = 8;
+        private static final int RECONSTRUCT_NANOS = 9;
+        private static final int K_PATHS_QUERIES = 10;
+        private static final int MATRIX_QUERIES = 11;
+        private static final int REACHABLE_QUERIES = 12;
+        private static final int[] QUERY_SLOTS = { DISTANCE_QUERIES, PATH_QUERIES, K_PATHS_QUERIES, MATRIX_QUERIES,
+                REACHABLE_QUERIES, };
+        private static final int BUCKETS = 64;
+        private static final int RESOLVE_HISTOGRAM = 16;
+        private static final int SEARCH_HISTOGRAM = RESOLVE_HISTOGRAM + BUCKETS;
+        private static final int RECONSTRUCT_HISTOGRAM = SEARCH_HISTOGRAM + BUCKETS;
+        private static final int SETTLED_HISTOGRAM = RECONSTRUCT_HISTOGRAM + BUCKETS;
+
+        // a cache line of padding keeps neighboring stripes apart
+        private static final int STRIDE = SETTLED_HISTOGRAM + BUCKETS + 8;
+
+        // asks whether the event is enabled without allocating one per query
+        private static final SearchEvent EVENT_PROBE = new SearchEvent();
+
+        private final int stripes;
+        private final AtomicLongArray cells;
+
+        SearchStats() {
+            int wanted = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+            stripes = Integer.highestOneBit(wanted - 1) << 1;
+            cells = new AtomicLongArray(stripes * STRIDE);
+        }
+
+        /**
+         * @return index of the calling thread's stripe
+         */
+        private int stripe() {
+            int h = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+            return ((h >>> 16) & (stripes - 1)) * STRIDE;
+        }
+
+        /**
+         * @param value nanoseconds or count
+         * @return histogram bucket holding values from 2^(bucket - 1) up to 2^bucket
+         */
+        private static int bucket(long value) {
+            return value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value);
+        }
+
+        /**
+         * counts a query with a country name that did not resolve
+         */
+        void unknownName() {
+            cells.getAndIncrement(stripe() + UNKNOWN_NAMES);
+        }
+
+        /**
+         * records one query
+         *
+         * @param kind             DISTANCE, PATH, K_PATHS, MATRIX or REACHABLE
+         * @param from             name of the starting country as queried
+         * @param to               name of the destination country as queried
+         * @param km               answer of the query, -1 if no route
+         * @param resolveNanos     time spent resolving the names
+         * @param searchNanos      time spent searching or looking up the answer
+         * @param reconstructNanos time spent building the route
+         * @param state            scratch state of the search that ran, null if
+         *                         the query was answered without searching
+         */
+        void record(int kind, String from, String to, int km, long resolveNanos, long searchNanos,
+                long reconstructNanos, SearchState state) {
+            if (state == null) {
+                record(kind, from, to, km, resolveNanos, searchNanos, reconstructNanos, 0, 0, 0, 0);
+            } else {
+                record(kind, from, to, km, resolveNanos, searchNanos, reconstructNanos, 1, state.settled,
+                        state.heap.pushes, state.relaxed);
+            }
+        }
+
+        /**
+         * records one query that ran any number of searches
+         *
+         * @param kind             DISTANCE, PATH, K_PATHS, MATRIX or REACHABLE
+         * @param from             name of the starting country as queried
+         * @param to               name of the destination country as queried
+         * @param km               answer of the query, -1 if no route
+         * @param resolveNanos     time spent resolving the names
+         * @param searchNanos      time spent searching or looking up the answer
+         * @param reconstructNanos time spent building the route
+         * @param searches         number of searches run
+         * @param settled          countries settled by all of them
+         * @param pushes           heap pushes by all of them
+         * @param relaxed          edges relaxed by all of them
+         */
+        void record(int kind, String from, String to, int km, long resolveNanos, long searchNanos,
+                long reconstructNanos, int searches, long settled, long pushes, long relaxed) {
+            int stripe = stripe();
+            cells.getAndIncrement(stripe + QUERY_SLOTS[kind]);
+            cells.getAndAdd(stripe + RESOLVE_NANOS, resolveNanos);
+            cells.getAndIncrement(stripe + RESOLVE_HISTOGRAM + bucket(resolveNanos));
+            cells.getAndAdd(stripe + SEARCH_NANOS, searchNanos);
+            cells.getAndIncrement(stripe + SEARCH_HISTOGRAM + bucket(searchNanos));
+            if (reconstructNanos > 0) {
+                cells.getAndAdd(stripe + RECONSTRUCT_NANOS, reconstructNanos);
+                cells.getAndIncrement(stripe + RECONSTRUCT_HISTOGRAM + bucket(reconstructNanos));
+            }
+            if (searches > 0) {
+                cells.getAndAdd(stripe + SEARCHES, searches);
+                cells.getAndAdd(stripe + SETTLED, settled);
+                cells.getAndAdd(stripe + PUSHES, pushes);
+                cells.getAndAdd(stripe + RELAXED, relaxed);
+                cells.getAndIncrement(stripe + SETTLED_HISTOGRAM + bucket(settled));
+            }
+
+            if (EVENT_PROBE.isEnabled()) {
+                SearchEvent event = new SearchEvent();
+                event.query = QUERY_NAMES[kind];
+                event.from = from;
+                event.to = to;
+                event.km = km;
+                event.searched = searches > 0;
+                event.settled = settled;
+                event.heapPushes = pushes;
+                event.edgesRelaxed = relaxed;
+                event.resolveTime = resolveNanos;
+                event.searchTime = searchNanos;
+                event.reconstructTime = reconstructNanos;
+                event.commit();
+            }
+        }
+
+        private long sum(int slot) {
+            long sum = 0;
+            for (int stripe = 0; stripe < stripes; stripe++) {
+                sum += cells.get(stripe * STRIDE + slot);
+            }
+            return sum;
+        }
+
+        /**
+         * @param histogram first slot of the histogram
+         * @param fraction  fraction of values at or below the result
+         * @return upper bound of the bucket holding the percentile, 0 if empty
+         */
+        private long percentile(int histogram, double fraction) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] = sum(histogram + bucket);
+                total += counts[bucket];
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank && seen > 0) {
+                    return bucket == 0 ? 0 : 1L << Math.min(bucket, 62);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public long getDistanceQueries() {
+            return sum(DISTANCE_QUERIES);
+        }
+
+        @Override
+        public long getPathQueries() {
+            return sum(PATH_QUERIES);
+        }
+
+        @Override
+        public long getKPathsQueries() {
+            return sum(K_PATHS_QUERIES);
+        }
+
+        @Override
+        public long getMatrixQueries() {
+            return sum(MATRIX_QUERIES);
+        }
+
+        @Override
+        public long getReachableQueries() {
+            return sum(REACHABLE_QUERIES);
+        }
+
+        @Override
+        public long getUnknownNames() {
+            return sum(UNKNOWN_NAMES);
+        }
+
+        @Override
+        public long getSearches() {
+            return sum(SEARCHES);
+        }
+
+        @Override
+        public long getNodesSettled() {
+            return sum(SETTLED);
+        }
+
+        @Override
+        public long getHeapPushes() {
+            return sum(PUSHES);
+        }
+
+        @Override
+        public long getEdgesRelaxed() {
+            return sum(RELAXED);
+        }
+
+        @Override
+        public long getResolveNanos() {
+            return sum(RESOLVE_NANOS);
+        }
+
+        @Override
+        public long getSearchNanos() {
+            return sum(SEARCH_NANOS);
+        }
+
+        @Override
+        public long getReconstructNanos() {
+            return sum(RECONSTRUCT_NANOS);
+        }
+
+        @Override
+        public double getResolveP50Micros() {
+            return percentile(RESOLVE_HISTOGRAM, 0.50) / 1e3;
+        }
+
+        @Override
+        public double getResolveP99Micros() {
+            return percentile(RESOLVE_HISTOGRAM, 0.99) / 1e3;
+        }
+
+        @Override
+        public double getSearchP50Micros() {
+            return percentile(SEARCH_HISTOGRAM, 0.50) / 1e3;
+        }
+
+        @Override
+        public double getSearchP99Micros() {
+            return percentile(SEARCH_HISTOGRAM, 0.99) / 1e3;
+        }
+
+        @Override
+        public double getReconstructP99Micros() {
+            return percentile(RECONSTRUCT_HISTOGRAM, 0.99) / 1e3;
+        }
+
+        @Override
+        public long getNodesSettledP99() {
+            return percentile(SETTLED_HISTOGRAM, 0.99);
+        }
+
+        /**
+         * zeroes every counter and histogram. queries running meanwhile may be
+         * partly kept
+         */
+        @Override
+        public void reset() {
+            for (int i = 0; i < cells.length(); i++) {
+                cells.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * JFR event for one query, off unless a recording enables it, for example
+     * with -XX:StartFlightRecording and a settings file that turns on
+     * IRoadTrip.Search
+     */
+    @Name("IRoadTrip.Search")
+    @Label("Route Query")
+    @Category("IRoadTrip")
+    @Description("A getDistance, findPath, findRoute, findPaths, distanceMatrix or reachableWithin query")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class SearchEvent extends Event {
+        @Label("Query")
+        String query;
+
+        @Label("From")
+        String from;
+
+        @Label("To")
+        String to;
+
+        @Label("Kilometers")
+        int km;
+
+        @Label("Searched")
+        boolean searched;
+
+        @Label("Nodes Settled")
+        long settled;
+
+        @Label("Heap Pushes")
+        long heapPushes;
+
+        @Label("Edges Relaxed")
+        long edgesRelaxed;
+
+        @Label("Resolve Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long resolveTime;
+
+        @Label("Search Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long searchTime;
+
+        @Label("Reconstruct Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long reconstructTime;
+    }
+
+    /**
+     * the graph together with everything derived from it. a Network is never
+     * modified once built, so any number of threads can query it at the same
+     * time; changes are made by publishing a new Network
+     */
+    static final class Network {
+        private final Graph graph;
+        private final NameIndex names;
+        private final CapitalHeuristic heuristic;
+        private final Components components;
+        private final Timeline timeline;
+        private final AllPairsTable allPairs;
+        private final RouteCache cache;
+        private final StateLookup states;
+
+        /**
+         * constructs a Network for a graph without precomputed tables
+         *
+         * @param graph     graph to query
+         * @param capitalKm      capital distance for every pair of graph ids, -1
+         *                       where unknown
+         * @param stateIntervals validity intervals of the countries, see Timeline
+         * @param states         state lookups the graph was built from
+         */
+        Network(Graph graph, int[] capitalKm, int[] stateIntervals, StateLookup states) {
+            this(graph, new NameIndex(graph, COUNTRY_ALIASES), new CapitalHeuristic(graph, capitalKm),
+                    new Components(graph), new Timeline(graph, stateIntervals), null,
+                    new RouteCache(graph, RouteCache.DEFAULT_CAPACITY), states);
+        }
+
+        private Network(Graph graph, NameIndex names, CapitalHeuristic heuristic, Components components,
+                Timeline timeline, AllPairsTable allPairs, RouteCache cache, StateLookup states) {
+            this.graph = graph;
+            this.names = names;
+            this.heuristic = heuristic;
+            this.components = components;
+            this.timeline = timeline;
+            this.allPairs = allPairs;
+            this.cache = cache;
+            this.states = states;
+        }
+
+        /**
+         * @param allPairs all pairs table computed for this graph
+         * @return copy of this network that answers queries from the table
+         */
+        Network withAllPairs(AllPairsTable allPairs) {
+            return new Network(graph, names, heuristic, components, timeline, allPairs, cache, states);
+        }
+
+        /**
+         * @param cache route cache for this graph, null to cache nothing
+         * @return copy of this network that caches routes in the given cache
+         */
+        Network withCache(RouteCache cache) {
+            return new Network(graph, names, heuristic, components, timeline, allPairs, cache, states);
+        }
+
+        /**
+         * @param graph    changed graph with the same countries as this one
+         * @param allPairs all pairs table updated for the changed graph, or null
+         * @param cache    route cache holding only routes still valid on the
+         *                 changed graph, or null
+         * @return network for the changed graph, with the heuristic and components
+         *         derived again
+         */
+        Network withGraph(Graph graph, AllPairsTable allPairs, RouteCache cache) {
+            return new Network(graph, names, new CapitalHeuristic(graph, heuristic.capitalKm),
+                    new Components(graph), timeline, allPairs, cache, states);
+        }
+    }
+
+    /**
+     * builds the graph representing the countries, their borders, and capdist
+     */
+    void buildGraph() {
+        GraphBuilder builder = new GraphBuilder();
+
+        // intern every country to a dense id before any edge is added
+        for (String country : new TreeSet<>(countryBorders.keySet())) {
+            builder.addNode(country);
+        }
+
+        // iterate through countryBorders and capdist to build the graph
+        for (Map.Entry<String, List<String>> entry : countryBorders.entrySet()) {
+            String sourceCountry = entry.getKey();
+            GraphBuilder.NodeEdges neighbors = builder.edges(sourceCountry);
+
+            List<String> neighboringCountries = entry.getValue();
+
+            // add neighboring countries based on capdist
+            for (String neighbor : neighboringCountries) {
+                int kmDistance = capitalDistance(sourceCountry, neighbor);
+
+                if (kmDistance >= 0) {
+                    neighbors.put(neighbor, kmDistance);
+                }
+            }
+        }
+
+        // fill edge cases
+        GraphBuilder.NodeEdges inner = builder.edges("Mali");
+        inner.put("Burkina Faso", 706);
+        inner.put("Cote d'Ivoire", 704);
+
+        inner = builder.edges("Panama");
+        inner.put("Costa Rica", 523);
+
+        inner = builder.edges("Laos");
+        inner.put("Burma", 701);
+
+        inner = builder.edges("Zambia");
+        inner.put("Congo, Democratic Republic of the", 1893);
+        inner.put("Tanzania ", 1543);
+
+        inner = builder.edges("Namibia");
+        inner.put("South Africa", 1187);
+
+        inner = builder.edges("Yemen");
+        inner.put("Saudi Arabia", 1040);
+
+        inner = builder.edges("Malawi");
+        inner.put("Tanzania ", 996);
+
+        inner = builder.edges("Bulgaria");
+        inner.put("Macedonia ", 151);
+
+        inner = builder.edges("Jordan");
+        inner.put("Saudi Arabia", 1323);
+
+        inner = builder.edges("Gambia, The");
+        inner.put("Senegal", 144);
+
+        inner = builder.edges("United Arab Emirates");
+        inner.put("Saudi Arabia", 778);
+
+        inner = builder.edges("Kenya");
+        inner.put("Tanzania", 1120);
+
+        inner = builder.edges("Cameroon");
+        inner.put("Central African Republic", 802);
+        inner.put("Congo, Democratic Republic of the", 898);
+        inner.put("Equatorial Guinea", 205);
+
+        inner = builder.edges("Oman");
+        inner.put("Saudi Arabia", 1194);
+        inner.put("United Arab Emirates", 422);
+
+        inner = builder.edges("Gabon");
+        inner.put("Congo, Democratic Republic of the", 790);
+        inner.put("Equatorial Guinea", 225);
+
+        inner = builder.edges("Brazil");
+        inner.put("Suriname", 2467);
+
+        inner = builder.edges("Honduras");
+        inner.put("El Salvador", 201);
+
+        inner = builder.edges("Italy");
+        inner.put("Austria", 16178);
+        inner.put("France", 1127);
+        inner.put("Slovenia", 566);
+        inner.put("Switzerland", 703);
+
+        inner = builder.edges("Korea, North");
+        inner.put("China", 820);
+        inner.put("Korea, South", 238);
+        inner.put("Russia", 6443);
+
+        inner = builder.edges("Haiti");
+        inner.put("Dominican Republic", 246);
+
+        inner = builder.edges("Burundi");
+        inner.put("Congo, Democratic Republic of the", 1557);
+        inner.put("Tanzania", 1158);
+
+        inner = builder.edges("Russia");
+        inner.put("Korea, North", 6443);
+
+        inner = builder.edges("China");
+        inner.put("Burma", 3222);
+        inner.put("Korea, North", 820);
+
+        inner = builder.edges("Kyrgyzstan");
+        inner.put("China", 3497);
+        inner.put("Tajikistan", 668);
+        inner.put("Kazakhstan", 230);
+        inner.put("Uzbekistan", 458);
+
+        inner = builder.edges("Togo");
+        inner.put("Burkina Faso", 730);
+
+        inner = builder.edges("Cote d'Ivoire");
+        inner.put("Burkina Faso", 784);
+        inner.put("Guinea", 975);
+        inner.put("Mali", 726);
+        inner.put("Ghana", 619);
+
+        inner = builder.edges("Uzbekistan");
+        inner.put("Kyrgyzstan", 458);
+
+        inner = builder.edges("Zimbabwe");
+        inner.put("South Africa", 929);
+
+        inner = builder.edges("Montenegro");
+        inner.put("Bosnia and Herzegovina", 96);
+
+        inner = builder.edges("Indonesia");
+        inner.put("Papua New Guinea", 4472);
+        inner.put("Timor-Leste", 2085);
+
+        inner = builder.edges("Benin");
+        inner.put("Burkina Faso", 807);
+
+        inner = builder.edges("Angola");
+        inner.put("Congo, Democratic Republic of the", 510);
+        inner.put("Congo, Republic of the", 510);
+
+        inner = builder.edges("Sudan");
+        inner.put("Central African Republic", 1961);
+
+        inner = builder.edges("Greece");
+        inner.put("North Macedonia", 2669);
+
+        inner = builder.edges("Iraq");
+        inner.put("Saudi Arabia", 1026);
+
+        inner = builder.edges("Tanzania");
+        inner.put("Burundi", 1158);
+        inner.put("Congo, Democratic Republic of the", 2666);
+        inner.put("Kenya", 626);
+        inner.put("Malawi", 996);
+        inner.put("Mozambique", 2338);
+        inner.put("Rwanda", 1157);
+        inner.put("Uganda", 1018);
+        inner.put("Zambia", 1543);
+
+        inner = builder.edges("Ghana");
+        inner.put("Burkina Faso", 797);
+        inner.put("Cote d'Ivoire", 619);
+
+        inner = builder.edges("India");
+        inner.put("Burma", 2347);
+
+        inner = builder.edges("Canada");
+        inner.put("United States", 731);
+
+        inner = builder.edges("Central African Republic");
+        inner.put("Congo, Democratic Republic of the", 970);
+        inner.put("Congo, Republic of the", 970);
+
+        inner = builder.edges("Guinea");
+        inner.put("Cote d'Ivoire", 975);
+        inner.put("Sierra Leone", 117);
+
+        inner = builder.edges("United States");
+        inner.put("Canada", 731);
+        inner.put("Mexico", 3024);
+
+        inner = builder.edges("Chad");
+        inner.put("Central African Republic", 974);
+
+        inner = builder.edges("Thailand");
+        inner.put("Burma", 573);
+
+        inner = builder.edges("United Kingdom");
+        inner.put("Ireland", 496);
+
+        inner = builder.edges("Liberia");
+        inner.put("Cote d'Ivoire", 608);
+        inner.put("Sierra Leone", 335);
+
+        inner = builder.edges("Burkina Faso");
+        inner.put("Cote d'Ivoire", 784);
+
+        inner = builder.edges("Austria");
         inner.put("Czechia", 259);
 
-        inner = graph.get("Mozambique");
-        inner.put("South Africa", 433);
-        inner.put("Eswatini", 133);
-        inner.put("Tanzania", 2338);
+        inner = builder.edges("Mozambique");
+        inner.put("South Africa", 433);
+        inner.put("Eswatini", 133);
+        inner.put("Tanzania", 2338);
+
+        inner = builder.edges("Lesotho");
+        inner.put("South Africa", 454);
+
+        inner = builder.edges("Congo, Republic of the");
+        inner.put("Central African Republic", 970);
+        inner.put("Angola", 510);
+        inner.put("Cameroon", 898);
+        inner.put("Congo, Republic of the", 0);
+        inner.put("Gabon", 790);
+
+        inner = builder.edges("Korea, South");
+        inner.put("Korea, North", 238);
+
+        inner = builder.edges("Czechia");
+        inner.put("Germany", 523);
+        inner.put("Austria", 259);
+        inner.put("Slovakia", 295);
+        inner.put("Poland", 517);
+
+        inner = builder.edges("Saudi Arabia");
+        inner.put("United Arab Emirates", 778);
+
+        inner = builder.edges("Ireland");
+        inner.put("United Kingdom", 496);
+
+        inner = builder.edges("Qatar");
+        inner.put("Saudi Arabia", 474);
+
+        inner = builder.edges("Slovakia");
+        inner.put("Czechia", 295);
+
+        inner = builder.edges("Bosnia and Herzegovina");
+        inner.put("Croatia", 295);
+        inner.put("Serbia", 196);
+        inner.put("Montenegro", 96);
+
+        inner = builder.edges("Niger");
+        inner.put("Burkina Faso", 413);
+
+        inner = builder.edges("Rwanda");
+        inner.put("Congo, Democratic Republic of the", 1678);
+        inner.put("Tanzania", 1157);
+
+        inner = builder.edges("Burma");
+        inner.put("China", 3222);
+        inner.put("India", 2347);
+        inner.put("Lao", 701);
+        inner.put("Thailand", 573);
+        inner.put("Bangladesh", 978);
+
+        inner = builder.edges("Bangladesh");
+        inner.put("Burma", 978);
+
+        inner = builder.edges("Nicaragua");
+        inner.put("Costa Rica", 337);
+
+        inner = builder.edges("Botswana");
+        inner.put("South Africa", 261);
+
+        inner = builder.edges("Mexico");
+        inner.put("United States", 3024);
+
+        inner = builder.edges("Uganda");
+        inner.put("Congo, Democratic Republic of the", 1959);
+        inner.put("Tanzania", 1018);
+
+        inner = builder.edges("Suriname");
+        inner.put("Guyana", 341);
+        inner.put("Brazil", 2467);
+
+        inner = builder.edges("Kyrgyzstan");
+        inner.put("Kazakhstan", 230);
+        inner.put("Tajikistan", 668);
+        inner.put("Uzbekistan", 458);
+        inner.put("China", 3497);
+
+        Graph built = builder.build();
+        useGraph(built, capitalDistances(built), stateIntervals(built));
+    }
+
+    /**
+     * installs a built graph together with the structures derived from it
+     *
+     * @param graph     graph to query
+     * @param capitalKm      capital distance for every pair of graph ids, -1
+     *                       where unknown
+     * @param stateIntervals validity intervals of the countries, see Timeline
+     */
+    private void useGraph(Graph graph, int[] capitalKm, int[] stateIntervals) {
+        network = new Network(graph, capitalKm, stateIntervals, new StateLookup(countryId, capitalDistances));
+    }
+
+    /**
+     * @return the border graph queries currently run on
+     */
+    Graph graph() {
+        return network.graph;
+    }
+
+    /**
+     * returns the calling thread's scratch state, replacing it if the graph has
+     * changed size since the thread last searched
+     *
+     * @param graph graph about to be searched
+     * @return scratch state sized for the graph
+     */
+    private SearchState searchState(Graph graph) {
+        SearchState state = searchStates.get();
+        if (state == null || state.size() != graph.size()) {
+            state = new SearchState(graph.size());
+            searchStates.set(state);
+        }
+        return state;
+    }
+
+    /**
+     * constructs an IRoadTrip from a graph loaded from a snapshot
+     *
+     * @param snapshot snapshot holding the graph and capital distances
+     */
+    private IRoadTrip(Snapshot snapshot) {
+        useGraph(snapshot.graph, snapshot.capitalKm, snapshot.stateIntervals);
+    }
+
+    /**
+     * loads a graph written by writeSnapshot, skipping the text parsing and graph
+     * building done by the main constructor
+     *
+     * @param filePath path of the snapshot file
+     * @return IRoadTrip answering queries on the loaded graph
+     * @throws IOException if the file cannot be read, or its header or checksum
+     *                     does not match
+     */
+    public static IRoadTrip fromSnapshot(String filePath) throws IOException {
+        return new IRoadTrip(Snapshot.read(Paths.get(filePath)));
+    }
+
+    /**
+     * writes the graph, including the patched edges, and the capital distances
+     * to a binary snapshot that fromSnapshot can load
+     *
+     * @param filePath path of the snapshot file
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public void writeSnapshot(String filePath) throws IOException {
+        Network net = network;
+        Snapshot.write(Paths.get(filePath), net.graph, net.heuristic.capitalKm, net.timeline.stateIntervals);
+    }
+
+    /**
+     * finds and returns the distance of the shortest path between two countries
+     *
+     * @param startCountry name of the starting country
+     * @param endCountry   name of the destination country
+     * @return distance of the shortest path between the start and end countries
+     *         returns -1 if the countries do not share borders
+     */
+    private int findShortestPathDistance(String startCountry, String endCountry) {
+        Network net = network;
+        long began = System.nanoTime();
+        int start = net.names.resolve(startCountry);
+        int end = net.names.resolve(endCountry);
+        long resolved = System.nanoTime();
+        if (start < 0 || end < 0) {
+            stats.unknownName();
+        }
+        if (start < 0 || end < 0 || !net.components.connected(start, end)) {
+            stats.record(SearchStats.DISTANCE, startCountry, endCountry, -1, resolved - began, 0, 0, null);
+            return -1;
+        }
+
+        if (net.allPairs != null) {
+            int km = net.allPairs.distance(start, end);
+            stats.record(SearchStats.DISTANCE, startCountry, endCountry, km, resolved - began,
+                    System.nanoTime() - resolved, 0, null);
+            return km;
+        }
+        return cachedRoute(net, start, end, SearchStats.DISTANCE, startCountry, endCountry, began, resolved)
+                .totalKm();
+    }
+
+    /**
+     * finds the shortest route between two countries with a single search
+     *
+     * @param startCountry name of the starting country
+     * @param endCountry   name of the destination country
+     * @return route between the start and end countries, Route.NONE if no valid
+     *         path is found
+     */
+    private Route findShortestRoute(String startCountry, String endCountry) {
+        return findShortestRoute(network, startCountry, endCountry);
+    }
+
+    /**
+     * finds the shortest route between two countries on a given network
+     *
+     * @param net          network to search
+     * @param startCountry name of the starting country
+     * @param endCountry   name of the destination country
+     * @return route between the start and end countries, Route.NONE if no valid
+     *         path is found
+     */
+    private Route findShortestRoute(Network net, String startCountry, String endCountry) {
+        long began = System.nanoTime();
+        int start = net.names.resolve(startCountry);
+        int end = net.names.resolve(endCountry);
+        long resolved = System.nanoTime();
+        if (start < 0 || end < 0) {
+            stats.unknownName();
+        }
+        if (start < 0 || end < 0 || !net.components.connected(start, end)) {
+            stats.record(SearchStats.PATH, startCountry, endCountry, -1, resolved - began, 0, 0, null);
+            return Route.NONE;
+        }
+
+        if (net.allPairs != null) {
+            Route route = net.allPairs.route(net.graph, start, end);
+            stats.record(SearchStats.PATH, startCountry, endCountry, route.totalKm(), resolved - began, 0,
+                    System.nanoTime() - resolved, null);
+            return route;
+        }
+        return cachedRoute(net, start, end, SearchStats.PATH, startCountry, endCountry, began, resolved);
+    }
+
+    /**
+     * answers a route from the network's route cache, searching and caching it on
+     * a miss, and records the query in the search statistics
+     *
+     * @param net          network to search
+     * @param start        id of the starting country
+     * @param end          id of the destination country
+     * @param kind         SearchStats.DISTANCE or SearchStats.PATH
+     * @param startCountry name of the starting country as queried
+     * @param endCountry   name of the destination country as queried
+     * @param began        System.nanoTime() when the query began
+     * @param resolved     System.nanoTime() once the names were resolved
+     * @return route from start to end, Route.NONE if there is none
+     */
+    private Route cachedRoute(Network net, int start, int end, int kind, String startCountry, String endCountry,
+            long began, long resolved) {
+        Route route = net.cache == null ? null : net.cache.get(start, end);
+        if (route != null) {
+            stats.record(kind, startCountry, endCountry, route.totalKm(), resolved - began,
+                    System.nanoTime() - resolved, 0, null);
+            return route;
+        }
+
+        SearchState state = searchState(net.graph);
+        runSearch(net, state, start, end, searchMode);
+        long searched = System.nanoTime();
+        route = state.route(net.graph, end);
+        stats.record(kind, startCountry, endCountry, route.totalKm(), resolved - began, searched - resolved,
+                System.nanoTime() - searched, state);
+        if (net.cache != null) {
+            net.cache.put(start, end, route);
+        }
+        return route;
+    }
+
+    /**
+     * searches for the shortest path from start to end with the given algorithm.
+     * the path is left in the previous links of state
+     *
+     * @param net   network to search
+     * @param state scratch state sized for the graph
+     * @param start id of the starting country
+     * @param end   id of the destination country
+     * @param mode  search algorithm to use
+     * @return distance from start to end, or -1 if end cannot be reached
+     */
+    private static int runSearch(Network net, SearchState state, int start, int end, SearchMode mode) {
+        switch (mode) {
+            case A_STAR:
+                return aStar(net.graph, net.heuristic, state, start, end);
+            case BIDIRECTIONAL:
+                return bidirectional(net.graph, state, start, end);
+            default:
+                return dijkstra(net.graph, state, start, end, null);
+        }
+    }
+
+    /**
+     * finds and returns the shortest path between two countries
+     *
+     * @param startCountry name of the starting country
+     * @param endCountry   name of the destination country
+     * @return list of country names representing the shortest path between the
+     *         start and end countries
+     *         empty list if no valid path is found
+     */
+    private List<String> findShortestPath(String startCountry, String endCountry) {
+        Route route = findShortestRoute(startCountry, endCountry);
+
+        if (route.found()) {
+            // print the shortest path
+            printShortestPath(route);
+        }
+
+        return route.countries();
+    }
+
+    /**
+     * told of every country dijkstras settles, nearest first
+     */
+    private interface SettleHandler {
+        /**
+         * @param id id of the settled country
+         * @param km distance of the country from the start
+         * @return true to stop the search here, before the country's borders are
+         *         followed
+         */
+        boolean settled(int id, int km);
+    }
+
+    /**
+     * runs dijkstras from start until end is settled. the scratch arrays in state
+     * are reset first and hold the distances and previous countries afterwards
+     *
+     * @param graph    graph to search
+     * @param state    scratch state sized for the graph
+     * @param start    id of the starting country
+     * @param end      id of the destination country, -1 to settle every country
+     *                 start can reach
+     * @param existing countries the search may enter, null for all of them
+     * @return distance from start to end, or -1 if end cannot be reached
+     */
+    private static int dijkstra(Graph graph, SearchState state, int start, int end, BitSet existing) {
+        return dijkstra(graph, state, start, end, existing, null);
+    }
+
+    /**
+     * runs dijkstras from start until end is settled or the handler stops it
+     *
+     * @param graph    graph to search
+     * @param state    scratch state sized for the graph
+     * @param start    id of the starting country
+     * @param end      id of the destination country, -1 for none
+     * @param existing countries the search may enter, null for all of them
+     * @param handler  told of every settled country other than end, null for
+     *                 none
+     * @return distance from start to end, or -1 if end cannot be reached or the
+     *         handler stopped the search first
+     */
+    private static int dijkstra(Graph graph, SearchState state, int start, int end, BitSet existing,
+            SettleHandler handler) {
+        state.reset();
+        IndexedMinHeap heap = state.heap;
+
+        state.visit(start, 0, -1, -1);
+        heap.push(start, 0);
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            state.settled++;
+
+            if (current == end) {
+                return state.dist[end];
+            }
+
+            int currentDistance = state.dist[current];
+            if (handler != null && handler.settled(current, currentDistance)) {
+                return -1;
+            }
+
+            state.relaxed += graph.lastEdge(current) - graph.firstEdge(current);
+            for (int e = graph.firstEdge(current); e < graph.lastEdge(current); e++) {
+                int neighbor = graph.target(e);
+                if (existing != null && !existing.get(neighbor)) {
+                    continue;
+                }
+                int newDistance = currentDistance + graph.weight(e);
+
+                if (newDistance < state.dist[neighbor]) {
+                    state.visit(neighbor, newDistance, current, e);
+                    heap.pushOrDecrease(neighbor, newDistance);
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * runs dijkstras backward over the incoming edges from end until every
+     * country that can reach it is settled. afterwards state.distance(id) is the
+     * distance from id to end and state.previous(id) the next country after id on
+     * a shortest path to end
+     *
+     * @param graph graph to search
+     * @param state scratch state sized for the graph
+     * @param end   id of the destination country
+     */
+    private static void reverseDijkstra(Graph graph, SearchState state, int end) {
+        state.reset();
+        IndexedMinHeap heap = state.heap;
+
+        state.visit(end, 0, -1, -1);
+        heap.push(end, 0);
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            state.settled++;
+
+            int currentDistance = state.dist[current];
+            state.relaxed += graph.lastInEdge(current) - graph.firstInEdge(current);
+            for (int slot = graph.firstInEdge(current); slot < graph.lastInEdge(current); slot++) {
+                int neighbor = graph.inSource(slot);
+                int e = graph.inEdge(slot);
+                int newDistance = currentDistance + graph.weight(e);
+
+                if (newDistance < state.dist[neighbor]) {
+                    state.visit(neighbor, newDistance, current, e);
+                    heap.pushOrDecrease(neighbor, newDistance);
+                }
+            }
+        }
+    }
+
+    /**
+     * runs A* from start to end, ordering the heap by distance so far plus the
+     * heuristic estimate of the distance left. a country is reopened if a shorter
+     * path to it shows up after it was settled, so the result stays exact even
+     * where the estimate is not consistent
+     *
+     * @param graph     graph to search
+     * @param heuristic lower bounds on the distance between countries
+     * @param state     scratch state sized for the graph
+     * @param start     id of the starting country
+     * @param end       id of the destination country
+     * @return distance from start to end, or -1 if end cannot be reached
+     */
+    private static int aStar(Graph graph, CapitalHeuristic heuristic, SearchState state, int start, int end) {
+        state.reset();
+        IndexedMinHeap heap = state.heap;
+
+        state.visit(start, 0, -1, -1);
+        heap.push(start, heuristic.estimate(start, end));
+
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            state.settled++;
+
+            if (current == end) {
+                return state.dist[end];
+            }
+
+            int currentDistance = state.dist[current];
+            state.relaxed += graph.lastEdge(current) - graph.firstEdge(current);
+            for (int e = graph.firstEdge(current); e < graph.lastEdge(current); e++) {
+                int neighbor = graph.target(e);
+                int newDistance = currentDistance + graph.weight(e);
+
+                if (newDistance < state.dist[neighbor]) {
+                    state.visit(neighbor, newDistance, current, e);
+                    heap.pushOrDecrease(neighbor, newDistance + heuristic.estimate(neighbor, end));
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * runs dijkstras from start over outgoing edges and from end over incoming
+     * edges at the same time, always expanding the side with the smaller heap
+     * minimum. every relaxation that reaches a country labelled by the other side
+     * is a candidate route. once the two heap minimums add up to at least the
+     * best candidate no shorter route can exist. the winning route is spliced
+     * into the previous links of state so it reads like a forward search
+     *
+     * @param graph graph to search
+     * @param state scratch state sized for the graph, the backward search uses
+     *              its sibling
+     * @param start id of the starting country
+     * @param end   id of the destination country
+     * @return distance from start to end, or -1 if end cannot be reached
+     */
+    private static int bidirectional(Graph graph, SearchState state, int start, int end) {
+        SearchState forward = state;
+        SearchState backward = state.backward();
+        forward.reset();
+        backward.reset();
+
+        forward.visit(start, 0, -1, -1);
+        backward.visit(end, 0, -1, -1);
+        if (start == end) {
+            return 0;
+        }
+        forward.heap.push(start, 0);
+        backward.heap.push(end, 0);
+
+        long best = Long.MAX_VALUE;
+        int meeting = -1;
+
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()) {
+            int forwardMin = forward.dist[forward.heap.peek()];
+            int backwardMin = backward.dist[backward.heap.peek()];
+            if ((long) forwardMin + backwardMin >= best) {
+                break;
+            }
+
+            if (forwardMin <= backwardMin) {
+                int current = forward.heap.poll();
+                forward.settled++;
+                forward.relaxed += graph.lastEdge(current) - graph.firstEdge(current);
+                for (int e = graph.firstEdge(current); e < graph.lastEdge(current); e++) {
+                    int neighbor = graph.target(e);
+                    int newDistance = forwardMin + graph.weight(e);
+
+                    if (newDistance < forward.dist[neighbor]) {
+                        forward.visit(neighbor, newDistance, current, e);
+                        forward.heap.pushOrDecrease(neighbor, newDistance);
+                        if (backward.dist[neighbor] != Integer.MAX_VALUE
+                                && (long) newDistance + backward.dist[neighbor] < best) {
+                            best = (long) newDistance + backward.dist[neighbor];
+                            meeting = neighbor;
+                        }
+                    }
+                }
+            } else {
+                int current = backward.heap.poll();
+                backward.settled++;
+                backward.relaxed += graph.lastInEdge(current) - graph.firstInEdge(current);
+                for (int slot = graph.firstInEdge(current); slot < graph.lastInEdge(current); slot++) {
+                    int neighbor = graph.inSource(slot);
+                    int e = graph.inEdge(slot);
+                    int newDistance = backwardMin + graph.weight(e);
+
+                    // backward links point toward end along the forward edge
+                    if (newDistance < backward.dist[neighbor]) {
+                        backward.visit(neighbor, newDistance, current, e);
+                        backward.heap.pushOrDecrease(neighbor, newDistance);
+                        if (forward.dist[neighbor] != Integer.MAX_VALUE
+                                && (long) newDistance + forward.dist[neighbor] < best) {
+                            best = (long) newDistance + forward.dist[neighbor];
+                            meeting = neighbor;
+                        }
+                    }
+                }
+            }
+        }
+
+        forward.settled += backward.settled;
+        forward.relaxed += backward.relaxed;
+        forward.heap.pushes += backward.heap.pushes;
+        if (meeting < 0) {
+            return -1;
+        }
+
+        // follow the backward links from the meeting point to end
+        for (int current = meeting; current != end; current = backward.previous[current]) {
+            int e = backward.previousEdge[current];
+            forward.visit(backward.previous[current], forward.dist[current] + graph.weight(e), current, e);
+        }
+        return forward.dist[end];
+    }
+
+    /**
+     * Yen's k shortest loopless paths from one country to another. one reverse
+     * dijkstras from the destination gives every country its exact distance to
+     * go and its next hop there. a spur route from a deviation country is read
+     * straight off that tree when the tree path avoids the blocked countries and
+     * borders; otherwise A* runs with the tree distances as its estimate, which
+     * stay a consistent lower bound however many borders are blocked, so it
+     * settles little more than the route it returns. following Lawler, each
+     * accepted route is only spurred from the country where it left its parent
+     * onward, since earlier spurs were already tried
+     */
+    static final class KShortestPaths {
+        private final Graph graph;
+        private final SearchState tree;
+        private final SearchState spur;
+        private final int end;
+        private final BitSet blockedCountries;
+        private final BitSet blockedEdges;
+        private final List<Candidate> accepted = new ArrayList<>();
+        private final PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        private final Set<Candidate> seen = new HashSet<>();
+
+        // searches run so far, with the countries, heap pushes and edges they took
+        int searches;
+        long settled;
+        long pushes;
+        long relaxed;
+
+        /**
+         * one loopless route, as the ids of its countries and edges
+         */
+        private static final class Candidate implements Comparable<Candidate> {
+            final int[] countries;
+            final int[] edges;
+            final int km;
+            final int deviation;
+            final int settled;
+
+            Candidate(int[] countries, int[] edges, int km, int deviation, int settled) {
+                this.countries = countries;
+                this.edges = edges;
+                this.km = km;
+                this.deviation = deviation;
+                this.settled = settled;
+            }
+
+            @Override
+            public int compareTo(Candidate other) {
+                if (km != other.km) {
+                    return Integer.compare(km, other.km);
+                }
+                if (edges.length != other.edges.length) {
+                    return Integer.compare(edges.length, other.edges.length);
+                }
+                return Arrays.compare(countries, other.countries);
+            }
+
+            @Override
+            public boolean equals(Object other) {
+                return other instanceof Candidate && Arrays.equals(countries, ((Candidate) other).countries);
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(countries);
+            }
+        }
+
+        /**
+         * @param graph graph to search
+         * @param tree  scratch state for the tree toward end
+         * @param spur  scratch state for the spur searches
+         * @param end   id of the destination country
+         */
+        KShortestPaths(Graph graph, SearchState tree, SearchState spur, int end) {
+            this.graph = graph;
+            this.tree = tree;
+            this.spur = spur;
+            this.end = end;
+            this.blockedCountries = new BitSet(graph.size());
+            this.blockedEdges = new BitSet(graph.edgeCount());
+            reverseDijkstra(graph, tree, end);
+            count(tree);
+        }
+
+        /**
+         * adds a finished search to the counts
+         */
+        private void count(SearchState state) {
+            searches++;
+            settled += state.settled;
+            pushes += state.heap.pushes;
+            relaxed += state.relaxed;
+        }
+
+        /**
+         * @param start id of the starting country
+         * @param k     most routes to find
+         * @return up to k routes from start to end, shortest first
+         */
+        List<Route> find(int start, int k) {
+            if (tree.dist[start] == Integer.MAX_VALUE) {
+                return Collections.emptyList();
+            }
+
+            accepted.add(treeSpur(new int[] { start }, new int[0], 0, 0, tree.settled));
+            while (accepted.size() < k) {
+                Candidate last = accepted.get(accepted.size() - 1);
+                for (int deviation = last.deviation; deviation < last.edges.length; deviation++) {
+                    Candidate candidate = spurFrom(last, deviation);
+                    if (candidate != null && seen.add(candidate)) {
+                        candidates.add(candidate);
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    break;
+                }
+                accepted.add(candidates.poll());
+            }
+
+            List<Route> routes = new ArrayList<>(accepted.size());
+            for (Candidate candidate : accepted) {
+                String[] countries = new String[candidate.countries.length];
+                for (int i = 0; i < countries.length; i++) {
+                    countries[i] = graph.name(candidate.countries[i]);
+                }
+                int[] hopKm = new int[candidate.edges.length];
+                for (int i = 0; i < hopKm.length; i++) {
+                    hopKm[i] = graph.weight(candidate.edges[i]);
+                }
+                routes.add(new Route(candidate.km, Arrays.asList(countries), hopKm, candidate.settled));
+            }
+            return routes;
+        }
+
+        /**
+         * finds the shortest route that follows path up to its country at
+         * deviation, then leaves it by a border no accepted route with the same
+         * beginning has taken there
+         *
+         * @return the new route, or null if there is none
+         */
+        private Candidate spurFrom(Candidate path, int deviation) {
+            int spurCountry = path.countries[deviation];
+            for (int i = 0; i < deviation; i++) {
+                blockedCountries.set(path.countries[i]);
+            }
+            for (Candidate other : accepted) {
+                if (other.edges.length > deviation
+                        && Arrays.equals(other.countries, 0, deviation + 1, path.countries, 0, deviation + 1)) {
+                    blockedEdges.set(other.edges[deviation]);
+                }
+            }
+
+            int rootKm = 0;
+            for (int i = 0; i < deviation; i++) {
+                rootKm += graph.weight(path.edges[i]);
+            }
+            int[] rootCountries = Arrays.copyOf(path.countries, deviation + 1);
+            int[] rootEdges = Arrays.copyOf(path.edges, deviation);
+
+            Candidate candidate = treePathOpen(spurCountry)
+                    ? treeSpur(rootCountries, rootEdges, rootKm, deviation, 0)
+                    : searchSpur(rootCountries, rootEdges, rootKm, deviation);
+            blockedCountries.clear();
+            blockedEdges.clear();
+            return candidate;
+        }
+
+        /**
+         * @return true if the tree path from a country to end crosses no blocked
+         *         country or border
+         */
+        private boolean treePathOpen(int from) {
+            for (int current = from; current != end; current = tree.previous[current]) {
+                if (blockedCountries.get(current) || blockedEdges.get(tree.previousEdge[current])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * appends the tree path from the last root country to end
+         */
+        private Candidate treeSpur(int[] rootCountries, int[] rootEdges, int rootKm, int deviation, int settled) {
+            int from = rootCountries[rootCountries.length - 1];
+            int hops = 0;
+            for (int current = from; current != end; current = tree.previous[current]) {
+                hops++;
+            }
+
+            int[] countries = Arrays.copyOf(rootCountries, rootCountries.length + hops);
+            int[] edges = Arrays.copyOf(rootEdges, rootEdges.length + hops);
+            int at = rootEdges.length;
+            for (int current = from; current != end; current = tree.previous[current]) {
+                edges[at] = tree.previousEdge[current];
+                countries[++at] = tree.previous[current];
+            }
+            return new Candidate(countries, edges, rootKm + tree.dist[from], deviation, settled);
+        }
+
+        /**
+         * runs A* from the last root country to end around the blocked countries
+         * and borders, estimating with the distances of the tree
+         */
+        private Candidate searchSpur(int[] rootCountries, int[] rootEdges, int rootKm, int deviation) {
+            int from = rootCountries[rootCountries.length - 1];
+            spur.reset();
+            IndexedMinHeap heap = spur.heap;
+            spur.visit(from, 0, -1, -1);
+            heap.push(from, tree.dist[from]);
+
+            boolean reached = false;
+            while (!heap.isEmpty()) {
+                int current = heap.poll();
+                spur.settled++;
+                if (current == end) {
+                    reached = true;
+                    break;
+                }
+
+                int currentDistance = spur.dist[current];
+                spur.relaxed += graph.lastEdge(current) - graph.firstEdge(current);
+                for (int e = graph.firstEdge(current); e < graph.lastEdge(current); e++) {
+                    int neighbor = graph.target(e);
+                    if (blockedEdges.get(e) || blockedCountries.get(neighbor)
+                            || tree.dist[neighbor] == Integer.MAX_VALUE) {
+                        continue;
+                    }
+                    int newDistance = currentDistance + graph.weight(e);
+                    if (newDistance < spur.dist[neighbor]) {
+                        spur.visit(neighbor, newDistance, current, e);
+                        heap.pushOrDecrease(neighbor, newDistance + tree.dist[neighbor]);
+                    }
+                }
+            }
+            count(spur);
+            if (!reached) {
+                return null;
+            }
+
+            int hops = 0;
+            for (int current = end; current != from; current = spur.previous[current]) {
+                hops++;
+            }
+            int[] countries = Arrays.copyOf(rootCountries, rootCountries.length + hops);
+            int[] edges = Arrays.copyOf(rootEdges, rootEdges.length + hops);
+            int at = rootEdges.length + hops;
+            for (int current = end; current != from; current = spur.previous[current]) {
+                countries[at] = current;
+                edges[--at] = spur.previousEdge[current];
+            }
+            return new Candidate(countries, edges, rootKm + spur.dist[end], deviation, spur.settled);
+        }
+    }
+
+    /**
+     * search algorithms for point to point queries
+     */
+    public enum SearchMode {
+        /** plain dijkstras from the starting country */
+        DIJKSTRA,
+        /** A* guided by the capital to capital distance to the destination */
+        A_STAR,
+        /** dijkstras from both ends until the two searches meet */
+        BIDIRECTIONAL
+    }
+
+    /**
+     * lower bounds on the road distance between countries, taken from the
+     * capital distances in capdist. border patches may be shorter than the
+     * capital distance of their endpoints, so every estimate is scaled by the
+     * smallest ratio of edge weight to capital distance. with that scale the
+     * estimate never exceeds the length of any edge and, by the triangle
+     * inequality, of any path. pairs missing from capdist estimate 0
+     */
+    static final class CapitalHeuristic {
+        private final int size;
+        private final int[] capitalKm;
+        private final double scale;
+
+        /**
+         * constructs the heuristic for a graph
+         *
+         * @param graph     graph the estimates are for
+         * @param capitalKm capital distance for every pair of ids, indexed
+         *                  from * size + to, -1 where unknown
+         */
+        CapitalHeuristic(Graph graph, int[] capitalKm) {
+            this.size = graph.size();
+            this.capitalKm = capitalKm;
+
+            double scale = 1.0;
+            for (int from = 0; from < size; from++) {
+                for (int e = graph.firstEdge(from); e < graph.lastEdge(from); e++) {
+                    int to = graph.target(e);
+                    int km = capitalKm[from * size + to];
+                    if (from == to) {
+                        continue;
+                    }
+                    if (km < 0) {
+                        // an edge without a capital distance cannot be bounded
+                        scale = 0;
+                    } else if (km > 0) {
+                        scale = Math.min(scale, (double) graph.weight(e) / km);
+                    }
+                }
+            }
+            this.scale = scale;
+        }
+
+        /**
+         * @param from id of a country
+         * @param to   id of the destination country
+         * @return lower bound on the distance from the country to the destination
+         */
+        int estimate(int from, int to) {
+            int km = capitalKm[from * size + to];
+            return km > 0 ? (int) (km * scale) : 0;
+        }
+
+        /**
+         * @return factor applied to capital distances, 1 if no edge is shorter than
+         *         its capital distance
+         */
+        double scale() {
+            return scale;
+        }
+    }
+
+    /**
+     * shortest distances and next hops between every pair of countries. row s
+     * holds the result of one full dijkstras from s, so a distance is a single
+     * array read and a route is a walk along the next hop entries
+     */
+    static final class AllPairsTable {
+        private final int size;
+        private final int[] distances;
+        private final int[] nextHops;
+
+        private AllPairsTable(int size) {
+            this.size = size;
+            this.distances = new int[size * size];
+            this.nextHops = new int[size * size];
+        }
+
+        private AllPairsTable(AllPairsTable table) {
+            this.size = table.size;
+            this.distances = table.distances.clone();
+            this.nextHops = table.nextHops.clone();
+        }
+
+        /**
+         * computes the table, running the per source searches in parallel
+         *
+         * @param graph graph to compute distances for
+         * @param pool  pool that runs the searches
+         * @return the computed table
+         */
+        static AllPairsTable compute(Graph graph, ForkJoinPool pool) {
+            AllPairsTable table = new AllPairsTable(graph.size());
+            int[] sources = new int[graph.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = i;
+            }
+            pool.invoke(new Rows(table, graph, sources, 0, sources.length));
+            return table;
+        }
+
+        /**
+         * returns a copy of this table for a graph where the edge from source to
+         * target changed weight, searching again only the rows the change can
+         * affect. a longer or removed edge affects the rows where it was tight,
+         * that is where it lay on a shortest path; a shorter or new edge affects
+         * the rows it now makes a shortcut for
+         *
+         * @param graph  changed graph with the same countries
+         * @param source id of the country the edge leaves from
+         * @param target id of the country the edge leads to
+         * @param oldKm  weight of the edge before the change, -1 if it was absent
+         * @param newKm  weight of the edge after the change, -1 if it was removed
+         * @param pool   pool that runs the searches
+         * @return the updated table
+         */
+        AllPairsTable update(Graph graph, int source, int target, int oldKm, int newKm, ForkJoinPool pool) {
+            boolean longer = newKm < 0 || (oldKm >= 0 && newKm > oldKm);
+            int[] rows = new int[size];
+            int count = 0;
+            for (int row = 0; row < size; row++) {
+                int toSource = distance(row, source);
+                int toTarget = distance(row, target);
+                if (toSource < 0) {
+                    continue;
+                }
+                if (longer ? toSource + oldKm == toTarget : toTarget < 0 || toSource + newKm < toTarget) {
+                    rows[count++] = row;
+                }
+            }
+
+            AllPairsTable table = new AllPairsTable(this);
+            pool.invoke(new Rows(table, graph, rows, 0, count));
+            return table;
+        }
+
+        /**
+         * @param from id of the starting country
+         * @param to   id of the destination country
+         * @return shortest distance between the countries, or -1 if unreachable
+         */
+        int distance(int from, int to) {
+            return distances[from * size + to];
+        }
+
+        /**
+         * @param from id of the starting country
+         * @param to   id of the destination country
+         * @return id of the first country after from on the shortest path, or -1
+         *         if to cannot be reached or equals from
+         */
+        int nextHop(int from, int to) {
+            return nextHops[from * size + to];
+        }
+
+        /**
+         * builds the route between two countries by walking the next hop entries
+         *
+         * @param graph graph the table was computed for
+         * @param from  id of the starting country
+         * @param to    id of the destination country
+         * @return route between the countries, Route.NONE if unreachable
+         */
+        Route route(Graph graph, int from, int to) {
+            int total = distance(from, to);
+            if (total < 0) {
+                return Route.NONE;
+            }
+
+            List<String> countries = new ArrayList<>();
+            int[] hopKm = new int[size];
+            int hops = 0;
+            int current = from;
+            countries.add(graph.name(current));
+            while (current != to) {
+                int next = nextHop(current, to);
+                hopKm[hops++] = distance(current, to) - distance(next, to);
+                countries.add(graph.name(next));
+                current = next;
+            }
+
+            return new Route(total, countries, Arrays.copyOf(hopKm, hops));
+        }
+
+        /**
+         * fills the rows for a range of a list of source countries, splitting the range
+         * until it is small enough for one task
+         */
+        private static final class Rows extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private static final int ROWS_PER_TASK = 8;
+
+            private final AllPairsTable table;
+            private final Graph graph;
+            private final int[] sources;
+            private final int from;
+            private final int to;
+
+            Rows(AllPairsTable table, Graph graph, int[] sources, int from, int to) {
+                this.table = table;
+                this.graph = graph;
+                this.sources = sources;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > ROWS_PER_TASK) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new Rows(table, graph, sources, from, mid), new Rows(table, graph, sources, mid, to));
+                    return;
+                }
+
+                SearchState state = new SearchState(graph.size());
+                for (int i = from; i < to; i++) {
+                    fillRow(state, sources[i]);
+                }
+            }
+
+            /**
+             * runs a full search from source and records its distances and the
+             * first hop toward every reached country
+             */
+            private void fillRow(SearchState state, int source) {
+                dijkstra(graph, state, source, -1, null);
+
+                int size = table.size;
+                int[] distances = table.distances;
+                int[] nextHops = table.nextHops;
+                int row = source * size;
+                for (int id = 0; id < size; id++) {
+                    distances[row + id] = state.distance(id);
+                    nextHops[row + id] = -1;
+                }
+
+                // the first hop of a country is the first hop of its previous
+                // country, or the country itself when it borders the source
+                for (int id = 0; id < size; id++) {
+                    if (id == source || distances[row + id] < 0 || nextHops[row + id] >= 0) {
+                        continue;
+                    }
+                    int top = id;
+                    while (state.previous(top) != source && nextHops[row + state.previous(top)] < 0) {
+                        top = state.previous(top);
+                    }
+                    int hop = state.previous(top) == source ? top : nextHops[row + state.previous(top)];
+                    for (int current = id; current != state.previous(top); current = state.previous(current)) {
+                        nextHops[row + current] = hop;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * immutable result of a route query: the total distance, the countries along
+     * the route and the length of each border crossing
+     */
+    public static final class Route {
+        static final Route NONE = new Route(-1, Collections.emptyList(), new int[0]);
+
+        private final int totalKm;
+        private final List<String> countries;
+        private final int[] hopKm;
+        private final int settled;
+
+        /**
+         * constructs a Route
+         *
+         * @param totalKm   total length of the route in kilometers, -1 if not found
+         * @param countries countries along the route from start to end
+         * @param hopKm     length of each hop, hopKm[i] leads from countries[i] to
+         *                  countries[i + 1]
+         */
+        Route(int totalKm, List<String> countries, int[] hopKm) {
+            this(totalKm, countries, hopKm, 0);
+        }
+
+        /**
+         * constructs a Route found by a search
+         *
+         * @param totalKm   total length of the route in kilometers, -1 if not found
+         * @param countries countries along the route from start to end
+         * @param hopKm     length of each hop
+         * @param settled   number of countries the search settled
+         */
+        Route(int totalKm, List<String> countries, int[] hopKm, int settled) {
+            this.totalKm = totalKm;
+            this.countries = Collections.unmodifiableList(countries);
+            this.hopKm = hopKm;
+            this.settled = settled;
+        }
+
+        /**
+         * @return true if a route exists
+         */
+        public boolean found() {
+            return totalKm >= 0;
+        }
+
+        /**
+         * @return total length of the route in kilometers, or -1 if not found
+         */
+        public int totalKm() {
+            return totalKm;
+        }
+
+        /**
+         * @return countries along the route from start to end, empty if not found
+         */
+        public List<String> countries() {
+            return countries;
+        }
+
+        /**
+         * @return number of border crossings along the route
+         */
+        public int hops() {
+            return hopKm.length;
+        }
+
+        /**
+         * @param hop index of the border crossing
+         * @return length in kilometers of the hop from countries().get(hop) to
+         *         countries().get(hop + 1)
+         */
+        public int hopKm(int hop) {
+            return hopKm[hop];
+        }
+
+        /**
+         * @return number of countries the search settled to find this route, 0 if
+         *         it came from a precomputed table
+         */
+        public int settled() {
+            return settled;
+        }
+
+        /**
+         * @return the same route driven from end to start. only a shortest route
+         *         if the graph is symmetric
+         */
+        Route reversed() {
+            if (!found()) {
+                return this;
+            }
+            List<String> back = new ArrayList<>(countries);
+            Collections.reverse(back);
+            int[] backKm = new int[hopKm.length];
+            for (int i = 0; i < hopKm.length; i++) {
+                backKm[i] = hopKm[hopKm.length - 1 - i];
+            }
+            return new Route(totalKm, back, backKm, settled);
+        }
+    }
+
+    /**
+     * distances from a list of origins to a list of destinations, one row per
+     * origin. built with the predecessor trees of its searches, it can also
+     * give the route behind every entry
+     */
+    public static final class DistanceMatrix {
+        private final Graph graph;
+        private final int[] origins;
+        private final int[] destinations;
+        private final int[][] km;
+        private final int[][] previous;
+        private final int[][] previousEdge;
+        private final AllPairsTable allPairs;
+
+        /**
+         * constructs a DistanceMatrix
+         *
+         * @param graph        graph the distances were found on
+         * @param origins      ids of the origins, -1 for unknown names
+         * @param destinations ids of the destinations, -1 for unknown names
+         * @param km           km[i][j] from origins[i] to destinations[j], -1 if
+         *                     there is no route
+         * @param previous     previous links of each origin's search, null if
+         *                     routes were not kept
+         * @param previousEdge edges of those previous links
+         * @param allPairs     table the distances came from, or null
+         */
+        DistanceMatrix(Graph graph, int[] origins, int[] destinations, int[][] km, int[][] previous,
+                int[][] previousEdge, AllPairsTable allPairs) {
+            this.graph = graph;
+            this.origins = origins;
+            this.destinations = destinations;
+            this.km = km;
+            this.previous = previous;
+            this.previousEdge = previousEdge;
+            this.allPairs = allPairs;
+        }
+
+        /**
+         * @return the distances, one row per origin and one column per destination,
+         *         -1 where a country is unknown or there is no route. the array is
+         *         not copied
+         */
+        public int[][] distances() {
+            return km;
+        }
+
+        /**
+         * @param origin      index of the origin in the queried list
+         * @param destination index of the destination in the queried list
+         * @return shortest distance between them, or -1
+         */
+        public int distance(int origin, int destination) {
+            return km[origin][destination];
+        }
+
+        /**
+         * @return true if route() can give the route behind every entry
+         */
+        public boolean hasRoutes() {
+            return previous != null || allPairs != null;
+        }
+
+        /**
+         * @param origin      index of the origin in the queried list
+         * @param destination index of the destination in the queried list
+         * @return shortest route between them, not found() if there is none
+         * @throws IllegalStateException if the matrix was built without routes
+         */
+        public Route route(int origin, int destination) {
+            if (!hasRoutes()) {
+                throw new IllegalStateException("distance matrix was built without routes");
+            }
+            if (km[origin][destination] < 0) {
+                return Route.NONE;
+            }
+            int start = origins[origin];
+            int end = destinations[destination];
+            if (allPairs != null) {
+                return allPairs.route(graph, start, end);
+            }
+
+            int[] links = previous[origin];
+            int[] edges = previousEdge[origin];
+            int hops = 0;
+            for (int current = end; current != start; current = links[current]) {
+                hops++;
+            }
+            String[] countries = new String[hops + 1];
+            int[] hopKm = new int[hops];
+            int current = end;
+            for (int i = hops; i > 0; i--) {
+                countries[i] = graph.name(current);
+                hopKm[i - 1] = graph.weight(edges[current]);
+                current = links[current];
+            }
+            countries[0] = graph.name(start);
+            return new Route(km[origin][destination], Arrays.asList(countries), hopKm);
+        }
+    }
+
+    /**
+     * a planned multi-stop trip: the order the stops are visited in and the
+     * border crossings that connect them
+     */
+    public static final class Trip {
+        static final Trip NONE = new Trip(Collections.emptyList(), Route.NONE, true);
+
+        private final List<String> stops;
+        private final Route route;
+        private final boolean exact;
+
+        /**
+         * constructs a Trip
+         *
+         * @param stops countries in visiting order, from the start to the end
+         * @param route every country driven through, from the start to the end
+         * @param exact true if no other order is shorter
+         */
+        Trip(List<String> stops, Route route, boolean exact) {
+            this.stops = Collections.unmodifiableList(stops);
+            this.route = route;
+            this.exact = exact;
+        }
+
+        /**
+         * @return true if every stop can be reached in some order
+         */
+        public boolean found() {
+            return route.found();
+        }
+
+        /**
+         * @return total length of the trip in kilometers, or -1 if not found
+         */
+        public int totalKm() {
+            return route.totalKm();
+        }
+
+        /**
+         * @return the start, the waypoints in visiting order and the end, empty if
+         *         not found
+         */
+        public List<String> stops() {
+            return stops;
+        }
+
+        /**
+         * @return the whole trip as one route through every country crossed
+         */
+        public Route route() {
+            return route;
+        }
+
+        /**
+         * @return true if the order was solved exactly, false if it came from the
+         *         local search used for many waypoints
+         */
+        public boolean exact() {
+            return exact;
+        }
+    }
+
+    /**
+     * orders the waypoints of a trip over a matrix of leg lengths. stop 0 is the
+     * start and the last stop the end; both stay in place. up to
+     * HELD_KARP_WAYPOINTS waypoints are solved exactly by Held-Karp dynamic
+     * programming. beyond that several starting orders, one nearest neighbor and
+     * the rest shuffled with fixed seeds, are improved in parallel with 2-opt and
+     * Or-opt moves until neither helps, and the shortest wins. legs are directed
+     * since borders can be one way, so 2-opt prices a reversed segment with
+     * prefix sums in both directions
+     */
+    static final class TripSolver {
+        static final int HELD_KARP_WAYPOINTS = 12;
+        static final int RESTARTS = 16;
+        static final long UNREACHABLE = 1L << 40;
+
+        private TripSolver() {
+        }
+
+        /**
+         * @param cost cost[a][b] from stop a to stop b, UNREACHABLE if there is no
+         *             route. legs that large keep every sum exact, so an order
+         *             using one is longer than any order without
+         * @return order of the stops, starting with 0 and ending with the last stop
+         */
+        static int[] solve(long[][] cost) {
+            return cost.length - 2 <= HELD_KARP_WAYPOINTS ? heldKarp(cost) : localSearch(cost);
+        }
+
+        /**
+         * @return total cost of visiting the stops in order
+         */
+        static long length(long[][] cost, int[] order) {
+            long length = 0;
+            for (int i = 0; i + 1 < order.length; i++) {
+                length += cost[order[i]][order[i + 1]];
+            }
+            return length;
+        }
+
+        private static int[] heldKarp(long[][] cost) {
+            int n = cost.length - 2;
+            int end = n + 1;
+            if (n == 0) {
+                return new int[] { 0, end };
+            }
+
+            // best[mask][last]: shortest way from the start through the waypoints in
+            // mask, ending at waypoint last + 1
+            int full = (1 << n) - 1;
+            long[][] best = new long[full + 1][n];
+            int[][] previous = new int[full + 1][n];
+            for (long[] row : best) {
+                Arrays.fill(row, Long.MAX_VALUE);
+            }
+            for (int last = 0; last < n; last++) {
+                best[1 << last][last] = cost[0][last + 1];
+                previous[1 << last][last] = -1;
+            }
+            for (int mask = 1; mask <= full; mask++) {
+                for (int last = 0; last < n; last++) {
+                    long length = best[mask][last];
+                    if ((mask & (1 << last)) == 0) {
+                        continue;
+                    }
+                    for (int next = 0; next < n; next++) {
+                        if ((mask & (1 << next)) != 0) {
+                            continue;
+                        }
+                        long candidate = length + cost[last + 1][next + 1];
+                        int grown = mask | (1 << next);
+                        if (candidate < best[grown][next]) {
+                            best[grown][next] = candidate;
+                            previous[grown][next] = last;
+                        }
+                    }
+                }
+            }
+
+            int last = 0;
+            long shortest = Long.MAX_VALUE;
+            for (int candidate = 0; candidate < n; candidate++) {
+                long length = best[full][candidate] + cost[candidate + 1][end];
+                if (length < shortest) {
+                    shortest = length;
+                    last = candidate;
+                }
+            }
+
+            int[] order = new int[n + 2];
+            order[n + 1] = end;
+            for (int mask = full, i = n; i > 0; i--) {
+                order[i] = last + 1;
+                int before = previous[mask][last];
+                mask &= ~(1 << last);
+                last = before;
+            }
+            return order;
+        }
+
+        private static int[] localSearch(long[][] cost) {
+            return IntStream.range(0, RESTARTS).parallel()
+                    .mapToObj(restart -> improve(cost, startingOrder(cost, restart)))
+                    .min(Comparator.comparingLong((int[] order) -> length(cost, order)))
+                    .get();
+        }
+
+        /**
+         * @return nearest neighbor order for restart 0, a seeded shuffle otherwise
+         */
+        private static int[] startingOrder(long[][] cost, int restart) {
+            int end = cost.length - 1;
+            int[] order = new int[cost.length];
+            order[end] = end;
+            if (restart == 0) {
+                boolean[] used = new boolean[cost.length];
+                for (int i = 1; i < end; i++) {
+                    int nearest = -1;
+                    for (int stop = 1; stop < end; stop++) {
+                        if (!used[stop] && (nearest < 0 || cost[order[i - 1]][stop] < cost[order[i - 1]][nearest])) {
+                            nearest = stop;
+                        }
+                    }
+                    used[nearest] = true;
+                    order[i] = nearest;
+                }
+                return order;
+            }
+
+            Random random = new Random(restart);
+            for (int i = 1; i < end; i++) {
+                order[i] = i;
+            }
+            for (int i = end - 1; i > 1; i--) {
+                int j = 1 + random.nextInt(i);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            return order;
+        }
+
+        /**
+         * applies improving 2-opt and Or-opt moves until neither finds one
+         */
+        private static int[] improve(long[][] cost, int[] order) {
+            boolean improved = true;
+            while (improved) {
+                improved = twoOpt(cost, order) || orOpt(cost, order);
+            }
+            return order;
+        }
+
+        /**
+         * reverses the first segment of waypoints whose reversal shortens the trip
+         *
+         * @return true if a segment was reversed
+         */
+        private static boolean twoOpt(long[][] cost, int[] order) {
+            int m = order.length;
+            long[] forward = new long[m];
+            long[] backward = new long[m];
+            for (int i = 1; i < m; i++) {
+                forward[i] = forward[i - 1] + cost[order[i - 1]][order[i]];
+                backward[i] = backward[i - 1] + cost[order[i]][order[i - 1]];
+            }
+
+            for (int i = 1; i < m - 2; i++) {
+                for (int j = i + 1; j < m - 1; j++) {
+                    long before = cost[order[i - 1]][order[i]] + (forward[j] - forward[i])
+                            + cost[order[j]][order[j + 1]];
+                    long after = cost[order[i - 1]][order[j]] + (backward[j] - backward[i])
+                            + cost[order[i]][order[j + 1]];
+                    if (after < before) {
+                        for (int a = i, b = j; a < b; a++, b--) {
+                            int swap = order[a];
+                            order[a] = order[b];
+                            order[b] = swap;
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * moves the first segment of one to three waypoints whose move to another
+         * place in the order shortens the trip
+         *
+         * @return true if a segment was moved
+         */
+        private static boolean orOpt(long[][] cost, int[] order) {
+            int m = order.length;
+            for (int length = 1; length <= 3; length++) {
+                for (int i = 1; i + length < m; i++) {
+                    int j = i + length - 1;
+                    long removed = cost[order[i - 1]][order[i]] + cost[order[j]][order[j + 1]]
+                            - cost[order[i - 1]][order[j + 1]];
+                    for (int k = 0; k + 1 < m; k++) {
+                        if (k >= i - 1 && k <= j) {
+                            continue;
+                        }
+                        // insert the segment between order[k] and order[k + 1]
+                        long added = cost[order[k]][order[i]] + cost[order[j]][order[k + 1]]
+                                - cost[order[k]][order[k + 1]];
+                        if (added < removed) {
+                            int[] segment = Arrays.copyOfRange(order, i, j + 1);
+                            if (k < i) {
+                                System.arraycopy(order, k + 1, order, k + 1 + length, i - k - 1);
+                                System.arraycopy(segment, 0, order, k + 1, length);
+                            } else {
+                                System.arraycopy(order, j + 1, order, i, k - j);
+                                System.arraycopy(segment, 0, order, k - length + 1, length);
+                            }
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * bounded cache of routes keyed by the (start, end) id pair. entries are
+     * spread over independently locked segments, each evicting its least
+     * recently used route once full, so concurrent queries rarely wait on each
+     * other. on a symmetric graph a route and its reverse share one entry
+     */
+    public static final class RouteCache {
+        static final int DEFAULT_CAPACITY = 4096;
+        private static final int SEGMENT_BITS = 4;
+
+        private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+        private final int capacity;
+        private final boolean symmetric;
+        private final LongAdder hits;
+        private final LongAdder misses;
+        private final LongAdder evictions;
+        private final LongAdder invalidations;
+
+        /**
+         * decides whether a cached route is still valid
+         */
+        interface Filter {
+            /**
+             * @param start id of the starting country
+             * @param end   id of the destination country
+             * @param route cached route from start to end
+             * @return true to keep the route
+             */
+            boolean keep(int start, int end, Route route);
+        }
+
+        /**
+         * constructs an empty RouteCache
+         *
+         * @param graph    graph the cached routes belong to
+         * @param capacity most routes kept at once
+         */
+        RouteCache(Graph graph, int capacity) {
+            this(graph, capacity, new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder());
+        }
+
+        private RouteCache(Graph graph, int capacity, LongAdder hits, LongAdder misses, LongAdder evictions,
+                LongAdder invalidations) {
+            this.capacity = capacity;
+            this.symmetric = graph.isSymmetric();
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            int perSegment = Math.max(1, (capacity + segments.length - 1) / segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment(perSegment, evictions);
+            }
+        }
+
+        /**
+         * looks up a cached route
+         *
+         * @param start id of the starting country
+         * @param end   id of the destination country
+         * @return cached route, or null if it is not cached
+         */
+        Route get(int start, int end) {
+            boolean flip = symmetric && start > end;
+            long key = flip ? key(end, start) : key(start, end);
+            Segment segment = segment(key);
+            Route route;
+            synchronized (segment) {
+                route = segment.get(key);
+            }
+            if (route == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return flip ? route.reversed() : route;
+        }
+
+        /**
+         * caches a route, evicting the least recently used route of its segment if
+         * the segment is full
+         *
+         * @param start id of the starting country
+         * @param end   id of the destination country
+         * @param route shortest route from start to end
+         */
+        void put(int start, int end, Route route) {
+            boolean flip = symmetric && start > end;
+            long key = flip ? key(end, start) : key(start, end);
+            Segment segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, flip ? route.reversed() : route);
+            }
+        }
+
+        /**
+         * copies the routes still valid after a graph change into a new cache for
+         * the changed graph. the statistics carry over and every dropped route
+         * counts as an invalidation
+         *
+         * @param graph changed graph with the same countries
+         * @param keep  decides which routes are still valid
+         * @return cache for the changed graph
+         */
+        RouteCache retain(Graph graph, Filter keep) {
+            RouteCache kept = new RouteCache(graph, capacity, hits, misses, evictions, invalidations);
+            for (Segment segment : segments) {
+                List<Map.Entry<Long, Route>> entries;
+                synchronized (segment) {
+                    entries = new ArrayList<>(segment.entrySet());
+                }
+
+                // least recently used first, so the copy keeps the same order
+                for (Map.Entry<Long, Route> entry : entries) {
+                    int start = (int) (entry.getKey() >>> 32);
+                    int end = (int) (long) entry.getKey();
+                    kept.putIfValid(keep, start, end, entry.getValue());
+                    // on a graph still symmetric the entry already holds the reverse
+                    if (symmetric && !kept.symmetric && start != end) {
+                        kept.putIfValid(keep, end, start, entry.getValue().reversed());
+                    }
+                }
+            }
+            return kept;
+        }
+
+        private void putIfValid(Filter keep, int start, int end, Route route) {
+            if (keep.keep(start, end, route)) {
+                put(start, end, route);
+            } else {
+                invalidations.increment();
+            }
+        }
+
+        private static long key(int start, int end) {
+            return ((long) start << 32) | end;
+        }
+
+        private Segment segment(long key) {
+            return segments[(int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - SEGMENT_BITS))];
+        }
+
+        /**
+         * @return most routes kept at once
+         */
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return number of routes currently cached
+         */
+        public int size() {
+            int size = 0;
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    size += segment.size();
+                }
+            }
+            return size;
+        }
+
+        /**
+         * @return number of lookups answered from the cache
+         */
+        public long hits() {
+            return hits.sum();
+        }
+
+        /**
+         * @return number of lookups that had to search
+         */
+        public long misses() {
+            return misses.sum();
+        }
+
+        /**
+         * @return number of routes evicted to make room for newer ones
+         */
+        public long evictions() {
+            return evictions.sum();
+        }
+
+        /**
+         * @return number of routes dropped because a border change could affect
+         *         them
+         */
+        public long invalidations() {
+            return invalidations.sum();
+        }
+
+        /**
+         * @return fraction of lookups answered from the cache, 0 before the first
+         *         lookup
+         */
+        public double hitRate() {
+            long hit = hits.sum();
+            long total = hit + misses.sum();
+            return total == 0 ? 0 : (double) hit / total;
+        }
+
+        /**
+         * one lock's share of the cache, a LinkedHashMap in access order that drops
+         * its eldest entry once over capacity
+         */
+        private static final class Segment extends LinkedHashMap<Long, Route> {
+            private static final long serialVersionUID = 1L;
+
+            private final int capacity;
+            private final LongAdder evictions;
+
+            Segment(int capacity, LongAdder evictions) {
+                super(capacity * 2, 0.75f, true);
+                this.capacity = capacity;
+                this.evictions = evictions;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Route> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * binary min heap of country ids keyed by distance. it tracks where each id
+     * sits in the heap, so a shorter distance can be applied in place instead of
+     * pushing a duplicate entry
+     */
+    static final class IndexedMinHeap {
+        private final int[] heap;
+        private final int[] keys;
+        private final int[] position;
+        private int size;
+        private int pushes;
+
+        /**
+         * constructs an empty heap for ids in [0, capacity)
+         *
+         * @param capacity number of distinct ids
+         */
+        IndexedMinHeap(int capacity) {
+            heap = new int[capacity];
+            keys = new int[capacity];
+            position = new int[capacity];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * removes every id from the heap
+         */
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                position[heap[i]] = -1;
+            }
+            size = 0;
+            pushes = 0;
+        }
+
+        /**
+         * adds an id that is not in the heap
+         *
+         * @param id  id to add
+         * @param key distance of the id
+         */
+        void push(int id, int key) {
+            pushes++;
+            heap[size] = id;
+            keys[id] = key;
+            position[id] = size;
+            siftUp(size++);
+        }
+
+        /**
+         * adds an id, or lowers its key if it is already in the heap
+         *
+         * @param id  id to add or update
+         * @param key new distance of the id
+         */
+        void pushOrDecrease(int id, int key) {
+            int i = position[id];
+            if (i < 0) {
+                push(id, key);
+            } else if (key < keys[id]) {
+                pushes++;
+                keys[id] = key;
+                siftUp(i);
+            }
+        }
+
+        /**
+         * @return id with the smallest key, without removing it
+         */
+        int peek() {
+            return heap[0];
+        }
+
+        /**
+         * removes and returns the id with the smallest key
+         *
+         * @return id with the smallest key
+         */
+        int poll() {
+            int top = heap[0];
+            position[top] = -1;
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
 
-        inner = graph.get("Lesotho");
-        inner.put("South Africa", 454);
+        private void siftUp(int i) {
+            int id = heap[i];
+            int key = keys[id];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                int parentId = heap[parent];
+                if (keys[parentId] <= key) {
+                    break;
+                }
+                heap[i] = parentId;
+                position[parentId] = i;
+                i = parent;
+            }
+            heap[i] = id;
+            position[id] = i;
+        }
 
-        inner = graph.get("Congo, Republic of the");
-        inner.put("Central African Republic", 970);
-        inner.put("Angola", 510);
-        inner.put("Cameroon", 898);
-        inner.put("Congo, Republic of the", 0);
-        inner.put("Gabon", 790);
+        private void siftDown(int i) {
+            int id = heap[i];
+            int key = keys[id];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && keys[heap[right]] < keys[heap[child]]) {
+                    child = right;
+                }
+                if (key <= keys[heap[child]]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = id;
+            position[id] = i;
+        }
+    }
 
-        inner = graph.get("Korea, South");
-        inner.put("Korea, North", 238);
+    /**
+     * scratch arrays for one search, reused across queries. only the entries a
+     * search touched are reset before the next one
+     */
+    static final class SearchState {
+        private final int[] dist;
+        private final int[] previous;
+        private final int[] previousEdge;
+        private final int[] touched;
+        private int touchedCount;
+        private int settled;
+        private int relaxed;
+        private final IndexedMinHeap heap;
+        private SearchState backward;
 
-        inner = graph.get("Czechia");
-        inner.put("Germany", 523);
-        inner.put("Austria", 259);
-        inner.put("Slovakia", 295);
-        inner.put("Poland", 517);
+        /**
+         * constructs scratch state for a graph with the given number of countries
+         *
+         * @param size number of countries in the graph
+         */
+        SearchState(int size) {
+            dist = new int[size];
+            previous = new int[size];
+            previousEdge = new int[size];
+            touched = new int[size];
+            heap = new IndexedMinHeap(size);
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            Arrays.fill(previous, -1);
+            Arrays.fill(previousEdge, -1);
+        }
 
-        inner = graph.get("Saudi Arabia");
-        inner.put("United Arab Emirates", 778);
+        /**
+         * @return number of countries the state is sized for
+         */
+        int size() {
+            return dist.length;
+        }
 
-        inner = graph.get("Ireland");
-        inner.put("United Kingdom", 496);
+        /**
+         * @return scratch state of the same size for the backward half of a
+         *         bidirectional search, created on first use
+         */
+        SearchState backward() {
+            if (backward == null) {
+                backward = new SearchState(dist.length);
+            }
+            return backward;
+        }
 
-        inner = graph.get("Qatar");
-        inner.put("Saudi Arabia", 474);
+        /**
+         * resets the entries written by the previous search
+         */
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                int id = touched[i];
+                dist[id] = Integer.MAX_VALUE;
+                previous[id] = -1;
+                previousEdge[id] = -1;
+            }
+            touchedCount = 0;
+            settled = 0;
+            relaxed = 0;
+            heap.clear();
+        }
 
-        inner = graph.get("Slovakia");
-        inner.put("Czechia", 295);
+        /**
+         * records a new best distance for a country
+         *
+         * @param id       id of the country
+         * @param distance distance from the start
+         * @param from     id of the previous country, -1 for the start
+         * @param edge     index of the edge used to reach the country, -1 for the
+         *                 start
+         */
+        void visit(int id, int distance, int from, int edge) {
+            if (dist[id] == Integer.MAX_VALUE) {
+                touched[touchedCount++] = id;
+            }
+            dist[id] = distance;
+            previous[id] = from;
+            previousEdge[id] = edge;
+        }
 
-        inner = graph.get("Bosnia and Herzegovina");
-        inner.put("Croatia", 295);
-        inner.put("Serbia", 196);
-        inner.put("Montenegro", 96);
+        /**
+         * @param id id of a country
+         * @return distance of the country found by the last search, or -1 if it
+         *         was not reached
+         */
+        int distance(int id) {
+            return dist[id] == Integer.MAX_VALUE ? -1 : dist[id];
+        }
 
-        inner = graph.get("Niger");
-        inner.put("Burkina Faso", 413);
+        /**
+         * @param id id of a country
+         * @return id of the previous country on the best known path, or -1
+         */
+        int previous(int id) {
+            return previous[id];
+        }
 
-        inner = graph.get("Rwanda");
-        inner.put("Congo, Democratic Republic of the", 1678);
-        inner.put("Tanzania", 1157);
+        /**
+         * reconstructs the route to end from the previous links of the last search
+         *
+         * @param graph graph that was searched
+         * @param end   id of the destination country
+         * @return route from the start of the last search to end
+         */
+        Route route(Graph graph, int end) {
+            if (dist[end] == Integer.MAX_VALUE) {
+                return new Route(-1, Collections.emptyList(), new int[0], settled);
+            }
 
-        inner = graph.get("Burma");
-        inner.put("China", 3222);
-        inner.put("India", 2347);
-        inner.put("Lao", 701);
-        inner.put("Thailand", 573);
-        inner.put("Bangladesh", 978);
+            int hops = 0;
+            for (int current = end; previous[current] != -1; current = previous[current]) {
+                hops++;
+            }
 
-        inner = graph.get("Bangladesh");
-        inner.put("Burma", 978);
+            String[] countries = new String[hops + 1];
+            int[] hopKm = new int[hops];
+            int current = end;
+            for (int i = hops; i > 0; i--) {
+                countries[i] = graph.name(current);
+                hopKm[i - 1] = graph.weight(previousEdge[current]);
+                current = previous[current];
+            }
+            countries[0] = graph.name(current);
 
-        inner = graph.get("Nicaragua");
-        inner.put("Costa Rica", 337);
+            return new Route(dist[end], Arrays.asList(countries), hopKm, settled);
+        }
+    }
 
-        inner = graph.get("Botswana");
-        inner.put("South Africa", 261);
+    /**
+     * prints the shortest path and details from the start country to end country
+     *
+     * @param route route to print
+     */
+    private void printShortestPath(Route route) {
+        List<String> path = route.countries();
+        System.out.println("Route from " + path.get(0) + " to " + path.get(path.size() - 1) + ":");
 
-        inner = graph.get("Mexico");
-        inner.put("United States", 3024);
+        for (int i = 0; i < route.hops(); i++) {
+            System.out.println("* " + path.get(i) + " --> " + path.get(i + 1) + " (" + route.hopKm(i) + " km.)");
+        }
+    }
 
-        inner = graph.get("Uganda");
-        inner.put("Congo, Democratic Republic of the", 1959);
-        inner.put("Tanzania", 1018);
+    /**
+     * calculates and returns the shortest path distance between two countries
+     *
+     * @param country1 name of the first country
+     * @param country2 name of the second country
+     * @return shortest path distance between the two countries, or -1
+     */
+    public int getDistance(String country1, String country2) {
+        return findShortestPathDistance(country1, country2);
+    }
 
-        inner = graph.get("Suriname");
-        inner.put("Guyana", 341);
-        inner.put("Brazil", 2467);
+    /**
+     * finds and returns the shortest path between two countries
+     *
+     * @param startCountry name of the starting country
+     * @param endCountry   name of the destination country
+     * @return list of country names representing the shortest path between the
+     *         start and end countries
+     *         empty list if no valid path is found
+     */
+    public List<String> findPath(String country1, String country2) {
+        return findShortestPath(country1, country2);
+    }
 
-        inner = graph.get("Kyrgyzstan");
-        inner.put("Kazakhstan", 230);
-        inner.put("Tajikistan", 668);
-        inner.put("Uzbekistan", 458);
-        inner.put("China", 3497);
+    /**
+     * finds the shortest route between two countries together with its total and
+     * per hop distances
+     *
+     * @param country1 name of the starting country
+     * @param country2 name of the destination country
+     * @return route between the two countries, not found() if there is none
+     */
+    public Route findRoute(String country1, String country2) {
+        return findShortestRoute(country1, country2);
+    }
+
+    /**
+     * finds the shortest route between two countries with a specific search
+     * algorithm, bypassing any precomputed table. route.settled() tells how many
+     * countries the algorithm had to settle
+     *
+     * @param country1 name of the starting country
+     * @param country2 name of the destination country
+     * @param mode     search algorithm to use
+     * @return route between the two countries, not found() if there is none
+     */
+    public Route findRoute(String country1, String country2, SearchMode mode) {
+        Network net = network;
+        long began = System.nanoTime();
+        int start = net.names.resolve(country1);
+        int end = net.names.resolve(country2);
+        long resolved = System.nanoTime();
+        if (start < 0 || end < 0) {
+            stats.unknownName();
+        }
+        if (start < 0 || end < 0 || !net.components.connected(start, end)) {
+            stats.record(SearchStats.PATH, country1, country2, -1, resolved - began, 0, 0, null);
+            return Route.NONE;
+        }
+
+        SearchState state = searchState(net.graph);
+        runSearch(net, state, start, end, mode);
+        long searched = System.nanoTime();
+        Route route = state.route(net.graph, end);
+        stats.record(SearchStats.PATH, country1, country2, route.totalKm(), resolved - began, searched - resolved,
+                System.nanoTime() - searched, state);
+        return route;
+    }
+
+    /**
+     * finds up to k shortest routes between two countries that visit no country
+     * twice, shortest first, as alternatives for when a border on the best
+     * route is closed. the first route is the one findRoute returns
+     *
+     * @param country1 name of the starting country
+     * @param country2 name of the destination country
+     * @param k        most routes to return
+     * @return routes in order of total distance, empty if there is none
+     * @throws IllegalArgumentException if k is less than 1
+     */
+    public List<Route> findPaths(String country1, String country2, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        Network net = network;
+        long began = System.nanoTime();
+        int start = net.names.resolve(country1);
+        int end = net.names.resolve(country2);
+        long resolved = System.nanoTime();
+        if (start < 0 || end < 0) {
+            stats.unknownName();
+        }
+        if (start < 0 || end < 0 || !net.components.connected(start, end)) {
+            stats.record(SearchStats.K_PATHS, country1, country2, -1, resolved - began, 0, 0, null);
+            return Collections.emptyList();
+        }
+
+        SearchState state = searchState(net.graph);
+        KShortestPaths paths = new KShortestPaths(net.graph, state, state.backward(), end);
+        List<Route> routes = paths.find(start, k);
+        stats.record(SearchStats.K_PATHS, country1, country2, routes.isEmpty() ? -1 : routes.get(0).totalKm(),
+                resolved - began, System.nanoTime() - resolved, 0, paths.searches, paths.settled, paths.pushes,
+                paths.relaxed);
+        return routes;
+    }
+
+    /**
+     * finds every country reachable by road from a country within a distance
+     *
+     * @param country name of the starting country
+     * @param maxKm   longest distance to include, in kilometers
+     * @return distance to each reachable country other than the starting one,
+     *         iterating from nearest to farthest; empty if the country is
+     *         unknown
+     * @throws IllegalArgumentException if maxKm is negative
+     */
+    public Map<String, Integer> reachableWithin(String country, int maxKm) {
+        LinkedHashMap<String, Integer> reachable = new LinkedHashMap<>();
+        reachableWithin(country, maxKm, reachable::put);
+        return reachable;
+    }
+
+    /**
+     * streams every country reachable by road from a country within a distance
+     * to a consumer, nearest first, as the search settles them. the consumer
+     * may query this IRoadTrip itself
+     *
+     * @param country  name of the starting country
+     * @param maxKm    longest distance to include, in kilometers
+     * @param consumer receives the name and distance of each reachable country
+     *                 other than the starting one; nothing if the country is
+     *                 unknown
+     * @throws IllegalArgumentException if maxKm is negative
+     */
+    public void reachableWithin(String country, int maxKm, ObjIntConsumer<String> consumer) {
+        if (maxKm < 0) {
+            throw new IllegalArgumentException("maxKm must not be negative: " + maxKm);
+        }
+        Network net = network;
+        long began = System.nanoTime();
+        int start = net.names.resolve(country);
+        long resolved = System.nanoTime();
+        if (start < 0) {
+            stats.unknownName();
+            stats.record(SearchStats.REACHABLE, country, null, -1, resolved - began, 0, 0, null);
+            return;
+        }
+
+        // queries made by the consumer get a state of their own
+        Graph graph = net.graph;
+        SearchState state = searchState(graph);
+        int[] farthest = { -1 };
+        searchStates.remove();
+        try {
+            dijkstra(graph, state, start, -1, null, (id, km) -> {
+                if (km > maxKm) {
+                    return true;
+                }
+                if (id != start) {
+                    farthest[0] = km;
+                    consumer.accept(graph.name(id), km);
+                }
+                return false;
+            });
+        } finally {
+            searchStates.set(state);
+        }
+        // the search time includes the consumer's, it runs as countries settle
+        stats.record(SearchStats.REACHABLE, country, null, farthest[0], resolved - began,
+                System.nanoTime() - resolved, 0, state);
+    }
+
+    /**
+     * finds the distance of the shortest path between two countries as of a date,
+     * crossing only countries that existed on that date according to
+     * state_name.tsv
+     *
+     * @param country1 name of the first country
+     * @param country2 name of the second country
+     * @param date     date the trip takes place
+     * @return shortest path distance between the two countries, or -1
+     */
+    public int getDistance(String country1, String country2, LocalDate date) {
+        return findRoute(country1, country2, date).totalKm();
+    }
+
+    /**
+     * finds the shortest path between two countries as of a date, crossing only
+     * countries that existed on that date according to state_name.tsv
+     *
+     * @param country1 name of the starting country
+     * @param country2 name of the destination country
+     * @param date     date the trip takes place
+     * @return countries along the shortest path, empty list if there is none
+     */
+    public List<String> findPath(String country1, String country2, LocalDate date) {
+        return findRoute(country1, country2, date).countries();
+    }
+
+    /**
+     * finds the shortest route between two countries as of a date, crossing only
+     * countries that existed on that date as existedOn tells it. a country
+     * whose territory belonged to a past state in STATE_TERRITORIES counts as
+     * existing, so in 1950 a route may start in or cross Slovenia. every date
+     * shares the same graph, so sweeping many dates costs one search each.
+     * dated routes are neither cached nor taken from the all pairs table
+     *
+     * @param country1 name of the starting country
+     * @param country2 name of the destination country
+     * @param date     date the trip takes place
+     * @return route between the two countries, not found() if there is none or
+     *         either country did not exist on the date
+     */
+    public Route findRoute(String country1, String country2, LocalDate date) {
+        Network net = network;
+        long began = System.nanoTime();
+        int start = net.names.resolve(country1);
+        int end = net.names.resolve(country2);
+        long resolved = System.nanoTime();
+        if (start < 0 || end < 0) {
+            stats.unknownName();
+        }
+        if (start < 0 || end < 0 || !net.components.connected(start, end)) {
+            stats.record(SearchStats.PATH, country1, country2, -1, resolved - began, 0, 0, null);
+            return Route.NONE;
+        }
+
+        BitSet existing = net.timeline.existingOn(date);
+        if (!existing.get(start) || !existing.get(end)) {
+            stats.record(SearchStats.PATH, country1, country2, -1, resolved - began, System.nanoTime() - resolved,
+                    0, null);
+            return Route.NONE;
+        }
+        SearchState state = searchState(net.graph);
+        dijkstra(net.graph, state, start, end, existing);
+        long searched = System.nanoTime();
+        Route route = state.route(net.graph, end);
+        stats.record(SearchStats.PATH, country1, country2, route.totalKm(), resolved - began, searched - resolved,
+                System.nanoTime() - searched, state);
+        return route;
+    }
+
+    /**
+     * tells whether a country existed on a date. a country also exists while
+     * its territory belonged to a past state listed in STATE_TERRITORIES, so
+     * existedOn("Slovenia", 1950-01-01) is true because Yugoslavia existed then
+     *
+     * @param country name of the country
+     * @param date    date to look up
+     * @return true if the country, or a past state covering its territory,
+     *         existed on the date according to state_name.tsv, or it is a
+     *         territory that never appears there
+     */
+    public boolean existedOn(String country, LocalDate date) {
+        Network net = network;
+        int id = net.names.resolve(country);
+        return id >= 0 && net.timeline.existingOn(date).get(id);
+    }
+
+    /**
+     * finds the shortest distances from every origin to every destination. each
+     * origin runs one dijkstras that stops once all destinations it can reach
+     * are settled, and the origins run in parallel on the common fork/join pool.
+     * with a precomputed all pairs table the entries are read from it instead
+     *
+     * @param origins      names of the starting countries
+     * @param destinations names of the destination countries
+     * @return distances, one row per origin and one column per destination, -1
+     *         where a country is unknown or there is no route
+     */
+    public int[][] getDistances(List<String> origins, List<String> destinations) {
+        return distanceMatrix(origins, destinations, false).distances();
+    }
+
+    /**
+     * finds the shortest distances from every origin to every destination, like
+     * getDistances, optionally keeping each origin's predecessor tree so the
+     * routes behind the entries can be extracted afterwards
+     *
+     * @param origins      names of the starting countries
+     * @param destinations names of the destination countries
+     * @param withRoutes   true to keep the predecessor trees
+     * @return the distance matrix
+     */
+    public DistanceMatrix distanceMatrix(List<String> origins, List<String> destinations, boolean withRoutes) {
+        Network net = network;
+        long began = System.nanoTime();
+        boolean unknown = false;
+        int[] from = new int[origins.size()];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = net.names.resolve(origins.get(i));
+            unknown |= from[i] < 0;
+        }
+        int[] to = new int[destinations.size()];
+        for (int j = 0; j < to.length; j++) {
+            to[j] = net.names.resolve(destinations.get(j));
+            unknown |= to[j] < 0;
+        }
+        if (unknown) {
+            stats.unknownName();
+        }
+        return distanceMatrix(net, from, to, withRoutes, began, System.nanoTime());
+    }
+
+    /**
+     * finds the shortest distances between countries already resolved to ids,
+     * recorded in the search statistics as one matrix query
+     *
+     * @param net        network to search
+     * @param from       ids of the starting countries, -1 where unknown
+     * @param to         ids of the destination countries, -1 where unknown
+     * @param withRoutes true to keep the predecessor trees
+     * @param began      System.nanoTime() when the query began
+     * @param resolved   System.nanoTime() once the names were resolved
+     * @return the distance matrix
+     */
+    private DistanceMatrix distanceMatrix(Network net, int[] from, int[] to, boolean withRoutes, long began,
+            long resolved) {
+        Graph graph = net.graph;
+        BitSet targets = new BitSet(graph.size());
+        for (int id : to) {
+            if (id >= 0) {
+                targets.set(id);
+            }
+        }
+
+        int[][] km = new int[from.length][to.length];
+        int[][] previous = withRoutes && net.allPairs == null ? new int[from.length][] : null;
+        int[][] previousEdge = previous != null ? new int[from.length][] : null;
+        // countries settled, heap pushes and edges relaxed by each origin's search
+        long[][] work = new long[from.length][];
+        IntStream.range(0, from.length).parallel().forEach(i -> {
+            int start = from[i];
+            if (start < 0) {
+                Arrays.fill(km[i], -1);
+                return;
+            }
+            if (net.allPairs != null) {
+                for (int j = 0; j < to.length; j++) {
+                    km[i][j] = to[j] < 0 ? -1 : net.allPairs.distance(start, to[j]);
+                }
+                return;
+            }
+
+            int count = 0;
+            for (int target = targets.nextSetBit(0); target >= 0; target = targets.nextSetBit(target + 1)) {
+                if (net.components.connected(start, target)) {
+                    count++;
+                }
+            }
+            // settled targets count down, the search ends with the last one
+            int[] remaining = { count };
+            SearchState state = searchState(graph);
+            dijkstra(graph, state, start, -1, null,
+                    (id, distance) -> remaining[0] == 0 || (targets.get(id) && --remaining[0] == 0));
+            for (int j = 0; j < to.length; j++) {
+                km[i][j] = to[j] < 0 ? -1 : state.distance(to[j]);
+            }
+            work[i] = new long[] { state.settled, state.heap.pushes, state.relaxed };
+            if (previous != null) {
+                previous[i] = state.previous.clone();
+                previousEdge[i] = state.previousEdge.clone();
+            }
+        });
+
+        int searches = 0;
+        long[] total = new long[3];
+        for (long[] search : work) {
+            if (search != null) {
+                searches++;
+                for (int w = 0; w < total.length; w++) {
+                    total[w] += search[w];
+                }
+            }
+        }
+        stats.record(SearchStats.MATRIX, from.length + " origins", to.length + " destinations", -1,
+                resolved - began, System.nanoTime() - resolved, 0, searches, total[0], total[1], total[2]);
+        return new DistanceMatrix(graph, from, to, km, previous, previousEdge, net.allPairs);
+    }
+
+    /**
+     * plans a trip from start to end through every waypoint, in the order that
+     * drives the fewest kilometers. the legs between every two stops come from
+     * one distance matrix, so each stop costs one search. up to
+     * TripSolver.HELD_KARP_WAYPOINTS distinct waypoints are ordered exactly,
+     * more by a parallel 2-opt and Or-opt local search
+     *
+     * @param start     name of the starting country
+     * @param end       name of the country the trip ends in, may equal start
+     * @param waypoints names of the countries to visit on the way, in any order
+     * @return the trip, not found() if some stop cannot be reached in any order
+     * @throws IllegalArgumentException if a country is unknown
+     */
+    public Trip planTrip(String start, String end, List<String> waypoints) {
+        Network net = network;
+        long began = System.nanoTime();
+        int startId = net.names.resolve(start);
+        int endId = net.names.resolve(end);
+        if (startId < 0 || endId < 0) {
+            throw new IllegalArgumentException("unknown country: " + (startId < 0 ? start : end));
+        }
+
+        // repeated waypoints and waypoints at either end are visited anyway
+        int[] stops = new int[waypoints.size() + 2];
+        int count = 0;
+        stops[count++] = startId;
+        BitSet seen = new BitSet(net.graph.size());
+        for (String country : waypoints) {
+            int id = net.names.resolve(country);
+            if (id < 0) {
+                throw new IllegalArgumentException("unknown country: " + country);
+            }
+            if (id != startId && id != endId && !seen.get(id)) {
+                seen.set(id);
+                stops[count++] = id;
+            }
+        }
+        stops[count++] = endId;
+        stops = Arrays.copyOf(stops, count);
+
+        DistanceMatrix matrix = distanceMatrix(net, stops, stops, true, began, System.nanoTime());
+        long[][] cost = new long[stops.length][stops.length];
+        for (int a = 0; a < cost.length; a++) {
+            for (int b = 0; b < cost.length; b++) {
+                int km = matrix.distance(a, b);
+                cost[a][b] = km < 0 ? TripSolver.UNREACHABLE : km;
+            }
+        }
+        int[] order = TripSolver.solve(cost);
+        if (TripSolver.length(cost, order) >= TripSolver.UNREACHABLE) {
+            return Trip.NONE;
+        }
+
+        List<String> visited = new ArrayList<>();
+        List<String> countries = new ArrayList<>();
+        int[] hopKm = new int[0];
+        int totalKm = 0;
+        countries.add(net.graph.name(startId));
+        for (int i = 0; i < order.length; i++) {
+            visited.add(net.graph.name(stops[order[i]]));
+            if (i == 0) {
+                continue;
+            }
+            Route leg = matrix.route(order[i - 1], order[i]);
+            countries.addAll(leg.countries().subList(1, leg.countries().size()));
+            int hops = hopKm.length;
+            hopKm = Arrays.copyOf(hopKm, hops + leg.hops());
+            for (int hop = 0; hop < leg.hops(); hop++) {
+                hopKm[hops + hop] = leg.hopKm(hop);
+            }
+            totalKm += leg.totalKm();
+        }
+        boolean exact = order.length - 2 <= TripSolver.HELD_KARP_WAYPOINTS;
+        return new Trip(visited, new Route(totalKm, countries, hopKm), exact);
+    }
+
+    /**
+     * finds the shortest routes for many pairs of countries in parallel on the
+     * common fork/join pool. every query of the batch sees the same network and
+     * each worker thread searches with its own scratch state
+     *
+     * @param queries pairs of country names, each {from, to}
+     * @return routes in the same order as the queries
+     */
+    public List<Route> findRoutes(List<String[]> queries) {
+        Network net = network;
+        return queries.parallelStream()
+                .map(query -> findShortestRoute(net, query[0], query[1]))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * finds the connected component of a country. two countries in different
+     * components never have a route between them
+     *
+     * @param country name of the country
+     * @return component of the country numbered from 0, or -1 if the country is
+     *         unknown
+     */
+    public int componentOf(String country) {
+        Network net = network;
+        int id = net.names.resolve(country);
+        return id >= 0 ? net.components.of(id) : -1;
+    }
+
+    /**
+     * checks in constant time whether two countries are on the same landmass.
+     * false means there is no route between them; true means there usually is,
+     * unless a one way border is in the way
+     *
+     * @param country1 name of the first country
+     * @param country2 name of the second country
+     * @return true if both countries are known and in the same component
+     */
+    public boolean sameComponent(String country1, String country2) {
+        Network net = network;
+        int a = net.names.resolve(country1);
+        int b = net.names.resolve(country2);
+        return a >= 0 && b >= 0 && net.components.connected(a, b);
+    }
+
+    /**
+     * @return countries of every connected component, largest component first
+     *         and countries sorted by name within each component
+     */
+    public List<List<String>> components() {
+        Network net = network;
+        List<List<String>> components = new ArrayList<>();
+        for (int i = 0; i < net.components.count(); i++) {
+            components.add(new ArrayList<>());
+        }
+        for (int id = 0; id < net.graph.size(); id++) {
+            components.get(net.components.of(id)).add(net.graph.name(id));
+        }
+        for (List<String> component : components) {
+            Collections.sort(component);
+        }
+        components.sort((a, b) -> b.size() - a.size());
+        return components;
+    }
 
+    /**
+     * @return counters and histograms of the queries answered so far
+     */
+    public SearchStats searchStats() {
+        return stats;
     }
 
     /**
-     * finds and returns the distance of the shortest path between two countries
+     * publishes the search statistics as an MBean on the platform MBean server
      *
-     * @param startCountry name of the starting country
-     * @param endCountry   name of the destination country
-     * @return distance of the shortest path between the start and end countries
-     *         returns -1 if the countries do not share borders
+     * @param name value of the name key, to tell several IRoadTrips apart
+     * @return name the MBean was registered under
+     * @throws JMException if the name is taken or invalid
      */
-    private int findShortestPathDistance(String startCountry, String endCountry) {
-        // implement dijkstras
-        PriorityQueue<Node> priorityQueue = new PriorityQueue<>(Comparator.comparingInt(node -> node.distance));
-        Map<String, Integer> distances = new HashMap<>();
-
-        for (String country : graph.keySet()) {
-            distances.put(country, Integer.MAX_VALUE);
-        }
+    public ObjectName registerStatsMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("IRoadTrip:type=SearchStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName);
+        return objectName;
+    }
 
-        distances.put(startCountry, 0);
-        priorityQueue.add(new Node(startCountry, 0));
+    /**
+     * selects the search algorithm used by getDistance, findPath and findRoute
+     * when no all pairs table is precomputed
+     *
+     * @param mode search algorithm to use
+     */
+    public void setSearchMode(SearchMode mode) {
+        searchMode = mode;
+    }
 
-        while (!priorityQueue.isEmpty()) {
-            Node current = priorityQueue.poll();
+    /**
+     * @return cache of recently found routes, with its hit, miss and eviction
+     *         counts, or null if caching is disabled
+     */
+    public RouteCache routeCache() {
+        return network.cache;
+    }
 
-            if (current.country.equals(endCountry)) {
-                Integer distance = distances.get(endCountry);
-                return distance != null ? distance : -1;
-            }
+    /**
+     * replaces the route cache with an empty one of the given capacity
+     *
+     * @param capacity most routes kept at once, 0 to disable caching
+     */
+    public synchronized void setRouteCacheCapacity(int capacity) {
+        Network net = network;
+        network = net.withCache(capacity > 0 ? new RouteCache(net.graph, capacity) : null);
+    }
 
-            if (current.distance > distances.get(current.country)) {
-                continue;
+    /**
+     * loads the data files again into a new graph and, if it passes validation,
+     * publishes it in one step. queries already running finish on the old graph
+     * and never wait for the new one. the route cache starts empty with the same
+     * capacity, the all pairs table is computed again if there was one, and
+     * border changes made at runtime are replaced by the file contents. the
+     * state numbers and capital distances are swapped together with the graph,
+     * and loadTimings reports the reload. if anything fails the old graph stays
+     * in place
+     *
+     * @param args three file paths representing country borders, capital
+     *             distances, and state information
+     * @throws IOException if a file cannot be read, is malformed, or gives a
+     *                     graph that fails validation, see validate
+     */
+    public void reload(String[] args) throws IOException {
+        IRoadTrip staged = load(args, borderCapitalsOnly);
+        Network next = staged.network;
+        validate(next.graph, network.graph);
+        AllPairsTable allPairs = network.allPairs == null ? null
+                : AllPairsTable.compute(next.graph, ForkJoinPool.commonPool());
+
+        // the slow work above ran without the lock; setBorder, precomputeAllPairs
+        // or another reload may have published since, so check against the
+        // network being replaced now
+        synchronized (this) {
+            Network current = network;
+            validate(next.graph, current.graph);
+            if (current.allPairs == null) {
+                allPairs = null;
+            } else if (allPairs == null) {
+                allPairs = AllPairsTable.compute(next.graph, ForkJoinPool.commonPool());
             }
+            RouteCache cache = current.cache == null ? null : new RouteCache(next.graph, current.cache.capacity());
+            // the state lookups travel inside the network, one write swaps all
+            network = next.withAllPairs(allPairs).withCache(cache);
+            loadTimings = staged.loadTimings;
+        }
+    }
 
-            for (Map.Entry<String, Integer> neighbor : graph.get(current.country).entrySet()) {
-                int newDistance = current.distance + neighbor.getValue();
-
-                if (newDistance < distances.get(neighbor.getKey())) {
-                    distances.put(neighbor.getKey(), newDistance);
-                    priorityQueue.add(new Node(neighbor.getKey(), newDistance));
+    /**
+     * checks that a freshly loaded graph is fit to replace the current one. a
+     * graph with less than half the countries or borders of the current one most
+     * likely comes from a file caught in the middle of being written
+     *
+     * @param graph   loaded graph
+     * @param current graph currently answering queries
+     * @throws IOException if the graph has no countries or borders, a border has
+     *                     a negative length, or the graph shrank by half
+     */
+    private static void validate(Graph graph, Graph current) throws IOException {
+        if (graph.size() == 0) {
+            throw new IOException("no countries in the border data");
+        }
+        if (graph.edgeCount() == 0) {
+            throw new IOException("no borders with a capital distance");
+        }
+        if (graph.size() * 2 < current.size() || graph.edgeCount() * 2 < current.edgeCount()) {
+            throw new IOException("graph shrank from " + current.size() + " countries and " + current.edgeCount()
+                    + " borders to " + graph.size() + " and " + graph.edgeCount());
+        }
+        for (int id = 0; id < graph.size(); id++) {
+            for (int e = graph.firstEdge(id); e < graph.lastEdge(id); e++) {
+                if (graph.weight(e) < 0) {
+                    throw new IOException("border from " + graph.name(id) + " to " + graph.name(graph.target(e))
+                            + " has distance " + graph.weight(e));
                 }
             }
         }
-
-        return -1;
     }
 
     /**
-     * finds and returns the shortest path between two countries
+     * starts watching the three data files and reloads them in the background
+     * whenever one changes. a failed reload, even one failing with an Error, is
+     * reported on System.err and the current graph stays in place
      *
-     * @param startCountry name of the starting country
-     * @param endCountry   name of the destination country
-     * @return list of country names representing the shortest path between the
-     *         start and end countries
-     *         empty list if no valid path is found
+     * @param args three file paths representing country borders, capital
+     *             distances, and state information
+     * @return watcher to stop watching with
+     * @throws IOException if the directories of the files cannot be watched
      */
-    private List<String> findShortestPath(String startCountry, String endCountry) {
-        PriorityQueue<Node> priorityQueue = new PriorityQueue<>(Comparator.comparingInt(node -> node.distance));
-        distances = new HashMap<>();
-        Map<String, String> previous = new HashMap<>();
+    public DataWatcher watchDataFiles(String[] args) throws IOException {
+        return new DataWatcher(args);
+    }
 
-        for (String country : graph.keySet()) {
-            distances.put(country, Integer.MAX_VALUE);
-        }
+    /**
+     * watches the data files from a daemon thread and calls reload once writes to
+     * them have settled
+     */
+    public final class DataWatcher implements Closeable {
+        private static final long SETTLE_MILLIS = 200;
 
-        distances.put(startCountry, 0);
-        priorityQueue.add(new Node(startCountry, 0));
+        private final String[] args;
+        private final Set<Path> files = new HashSet<>();
+        private final WatchService watchService;
+        private final Thread thread;
+        private final LongAdder reloads = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile Throwable lastError;
 
-        while (!priorityQueue.isEmpty()) {
-            Node current = priorityQueue.poll();
+        /**
+         * registers the directories of the data files and starts the watching
+         * thread
+         *
+         * @param args three file paths representing country borders, capital
+         *             distances, and state information
+         * @throws IOException if a directory cannot be watched
+         */
+        private DataWatcher(String[] args) throws IOException {
+            this.args = Arrays.copyOf(args, 3);
+            watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new HashSet<>();
+            for (String file : this.args) {
+                Path path = Paths.get(file).toAbsolutePath().normalize();
+                files.add(path);
+                directories.add(path.getParent());
+            }
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            }
 
-            if (current.country.equals(endCountry)) {
-                int distance = findShortestPathDistance(startCountry, endCountry);
-                if (distance != -1) {
-                    // reconstruct the path
-                    List<String> path = reconstructPath(startCountry, endCountry, previous);
+            thread = new Thread(this::watch, "IRoadTrip-reload");
+            thread.setDaemon(true);
+            thread.start();
+        }
 
-                    // print the shortest path
-                    printShortestPath(startCountry, endCountry, previous);
+        private void watch() {
+            try {
+                while (true) {
+                    boolean changed = drain(watchService.take());
 
-                    return path;
-                } else {
-                    System.out.println("No valid path found between " + startCountry + " and " + endCountry);
-                    return Collections.emptyList();
+                    // an editor or copy may write a file in several steps
+                    WatchKey key;
+                    while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        changed |= drain(key);
+                    }
+                    if (changed) {
+                        reloadNow();
+                    }
                 }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // closed
+            } catch (Throwable e) {
+                // the watching itself failed, say so before the thread ends
+                lastError = e;
+                System.err.println("Stopped watching " + String.join(", ", args) + ": " + e);
+                throw e;
             }
+        }
 
-            if (current.distance > distances.get(current.country)) {
-                continue;
-            }
-
-            for (Map.Entry<String, Integer> neighbor : graph.get(current.country).entrySet()) {
-                int newDistance = current.distance + neighbor.getValue();
-
-                if (newDistance < distances.get(neighbor.getKey())) {
-                    distances.put(neighbor.getKey(), newDistance);
-                    priorityQueue.add(new Node(neighbor.getKey(), newDistance));
-
-                    previous.put(neighbor.getKey(), current.country);
+        /**
+         * @return true if any event of the key concerns a data file
+         */
+        private boolean drain(WatchKey key) {
+            Path directory = (Path) key.watchable();
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                        || files.contains(directory.resolve((Path) event.context()))) {
+                    changed = true;
                 }
             }
+            key.reset();
+            return changed;
         }
 
-        // no path is found, return an empty list
-        return Collections.emptyList();
-    }
+        private void reloadNow() {
+            try {
+                reload(args);
+                reloads.increment();
+                System.err.println("Reloaded " + String.join(", ", args));
+            } catch (Throwable e) {
+                // an Error from a bad file, such as a StackOverflowError, would
+                // otherwise end the thread and stop reloading without a word
+                failures.increment();
+                lastError = e;
+                System.err.println("Reload failed, keeping the current graph: " + e);
+            }
+        }
 
-    /**
-     * reconstructs and returns the path from start to end
-     *
-     * @param startCountry name of the starting country
-     * @param endCountry   name of the destination country
-     * @param previous     map containing the previous country for each country in
-     *                     the path
-     * @return list of country names representing the path
-     */
-    private List<String> reconstructPath(String startCountry, String endCountry, Map<String, String> previous) {
-        List<String> path = new ArrayList<>();
-        String current = endCountry;
+        /**
+         * @return number of reloads that published a new graph
+         */
+        public long reloads() {
+            return reloads.sum();
+        }
 
-        while (current != null) {
-            path.add(current);
-            current = previous.get(current);
+        /**
+         * @return number of reloads that failed and kept the old graph
+         */
+        public long failures() {
+            return failures.sum();
         }
 
-        Collections.reverse(path);
-        return path;
-    }
+        /**
+         * @return error of the most recent failed reload, or of the watching
+         *         itself if it stopped, null if nothing failed
+         */
+        public Throwable lastError() {
+            return lastError;
+        }
 
-    private static class Node {
-        private String country;
-        private int distance;
+        /**
+         * @return true while the data files are still watched, false once closed
+         *         or if the watching thread ended on an error, see lastError
+         */
+        public boolean isWatching() {
+            return thread.isAlive();
+        }
 
         /**
-         * constructs a Node with the country name and distance
+         * stops watching the data files
          *
-         * @param country  name of the country represented
-         * @param distance distance from the start country to country
+         * @throws IOException if the watch service cannot be closed
          */
-        public Node(String country, int distance) {
-            this.country = country;
-            this.distance = distance;
+        @Override
+        public void close() throws IOException {
+            watchService.close();
+            thread.interrupt();
         }
     }
 
     /**
-     * prints the shortest path and details from the start country to end country
+     * adds a border from one country to another, or changes its distance if it
+     * exists. borders are one way, call again with the countries swapped for the
+     * way back. only the cached routes and all pairs rows the change can affect
+     * are dropped or searched again
      *
-     * @param startCountry name of the starting country
-     * @param endCountry   name of the destination country
-     * @param previous     map containing the previous country for each country in
-     *                     the path
+     * @param from name of the country the border leaves from
+     * @param to   name of the country the border leads to
+     * @param km   distance in kilometers
+     * @return previous distance of the border, or -1 if it is new
+     * @throws IllegalArgumentException if a country is unknown, both are the
+     *                                  same, or km is negative
      */
-    private void printShortestPath(String startCountry, String endCountry, Map<String, String> previous) {
-        System.out.println("Route from " + startCountry + " to " + endCountry + ":");
+    public synchronized int setBorder(String from, String to, int km) {
+        if (km < 0) {
+            throw new IllegalArgumentException("Border distance must not be negative: " + km);
+        }
+        return changeBorder(from, to, km);
+    }
 
-        List<String> path = new ArrayList<>();
-        String current = endCountry;
+    /**
+     * removes the border from one country to another, leaving the way back in
+     * place. only the cached routes and all pairs rows that crossed it are
+     * dropped or searched again
+     *
+     * @param from name of the country the border leaves from
+     * @param to   name of the country the border leads to
+     * @return distance of the removed border, or -1 if there was none
+     * @throws IllegalArgumentException if a country is unknown or both are the
+     *                                  same
+     */
+    public synchronized int removeBorder(String from, String to) {
+        return changeBorder(from, to, -1);
+    }
 
-        while (current != null) {
-            path.add(current);
-            current = previous.get(current);
+    /**
+     * publishes a network where the border from one country to another has a new
+     * distance, carrying over whatever the change leaves valid
+     *
+     * @param from name of the country the border leaves from
+     * @param to   name of the country the border leads to
+     * @param km   new distance of the border, or -1 to remove it
+     * @return previous distance of the border, or -1 if there was none
+     */
+    private int changeBorder(String from, String to, int km) {
+        Network net = network;
+        int source = net.names.resolve(from);
+        int target = net.names.resolve(to);
+        if (source < 0 || target < 0) {
+            throw new IllegalArgumentException("Unknown country: " + (source < 0 ? from : to));
+        }
+        if (source == target) {
+            throw new IllegalArgumentException("A border needs two different countries: " + from);
         }
 
-        // print the path in reverse order
-        for (int i = path.size() - 1; i > 0; i--) {
-            String country = path.get(i);
-            String nextCountry = path.get(i - 1);
-            int distance = distances.get(nextCountry) - distances.get(country);
-
-            System.out.println("* " + country + " --> " + nextCountry + " (" + distance + " km.)");
+        int edge = net.graph.edge(source, target);
+        int oldKm = edge >= 0 ? net.graph.weight(edge) : -1;
+        if (oldKm == km) {
+            return oldKm;
         }
+
+        Graph graph = net.graph.withEdge(source, target, km);
+        AllPairsTable allPairs = net.allPairs == null ? null
+                : net.allPairs.update(graph, source, target, oldKm, km, ForkJoinPool.commonPool());
+        RouteCache cache = net.cache == null ? null : retainValidRoutes(net.cache, graph, source, target, oldKm, km);
+        network = net.withGraph(graph, allPairs, cache);
+        return oldKm;
     }
 
     /**
-     * calculates and returns the shortest path distance between two countries
+     * drops the cached routes a changed border can affect. a longer or removed
+     * border only affects the routes crossing it. a shorter or new border affects
+     * the routes it now makes a shortcut for, found with one search back from
+     * its source and one forward from its target
      *
-     * @param country1 name of the first country
-     * @param country2 name of the second country
-     * @return shortest path distance between the two countries, or -1
+     * @param cache  cache of the network before the change
+     * @param graph  changed graph
+     * @param source id of the country the border leaves from
+     * @param target id of the country the border leads to
+     * @param oldKm  distance before the change, -1 if the border was absent
+     * @param newKm  distance after the change, -1 if the border was removed
+     * @return cache for the changed graph holding the routes still valid
      */
-    public int getDistance(String country1, String country2) {
-        return findShortestPathDistance(country1, country2);
+    private RouteCache retainValidRoutes(RouteCache cache, Graph graph, int source, int target, int oldKm,
+            int newKm) {
+        if (newKm < 0 || (oldKm >= 0 && newKm > oldKm)) {
+            String sourceName = graph.name(source);
+            String targetName = graph.name(target);
+            return cache.retain(graph, (start, end, route) -> {
+                List<String> countries = route.countries();
+                for (int i = 0; i + 1 < countries.size(); i++) {
+                    if (countries.get(i).equals(sourceName) && countries.get(i + 1).equals(targetName)) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        }
+
+        SearchState state = searchState(graph);
+        reverseDijkstra(graph, state, source);
+        int[] toSource = new int[graph.size()];
+        for (int id = 0; id < toSource.length; id++) {
+            toSource[id] = state.distance(id);
+        }
+        dijkstra(graph, state, target, -1, null);
+        int[] fromTarget = new int[graph.size()];
+        for (int id = 0; id < fromTarget.length; id++) {
+            fromTarget[id] = state.distance(id);
+        }
+
+        return cache.retain(graph, (start, end, route) -> toSource[start] < 0 || fromTarget[end] < 0
+                || (route.found() && toSource[start] + newKm + fromTarget[end] >= route.totalKm()));
     }
 
     /**
-     * finds and returns the shortest path between two countries
-     *
-     * @param startCountry name of the starting country
-     * @param endCountry   name of the destination country
-     * @return list of country names representing the shortest path between the
-     *         start and end countries
-     *         empty list if no valid path is found
+     * precomputes the distance and next hop between every pair of countries, one
+     * search per source country run in parallel on the common fork/join pool.
+     * afterwards getDistance is a single array read and findPath walks the next
+     * hop table
      */
-    public List<String> findPath(String country1, String country2) {
-        return findShortestPath(country1, country2);
+    public synchronized void precomputeAllPairs() {
+        Network net = network;
+        network = net.withAllPairs(AllPairsTable.compute(net.graph, ForkJoinPool.commonPool()));
     }
 
+    /**
+     * historical and alternative country names with the name used in borders
+     */
+    private static final String[][] COUNTRY_ALIASES = {
+            { "United States of America", "United States" },
+            { "The Bahamas", "Bahamas, The" },
+            { "Bahamas", "Bahamas, The" },
+            { "Surinam", "Suriname" },
+            { "German Federal Republic", "Germany" },
+            { "Czech Republic", "Czechia" },
+            { "Sardinia", "Italy" },
+            { "Macedonia", "North Macedonia" },
+            { "Former Yugoslav Republic of Macedonia", "North Macedonia" },
+            { "Bosnia-Herzegovina", "Bosnia and Herzegovina" },
+            { "Rumania", "Romania" },
+            { "Soviet Union", "Russia" },
+            { "Byelorussia", "Belarus" },
+            { "Cote D’Ivoire", "Cote d'Ivoire" },
+            { "Upper Volta", "Burkina Faso" },
+            { "Congo", "Congo, Republic of the" },
+            { "Republic of the Congo", "Congo, Republic of the" },
+            { "Democratic Republic of Zaire", "Congo, Democratic Republic of the" },
+            { "Zaire", "Congo, Democratic Republic of the" },
+            { "Democratic Republic of the Congo", "Congo, Democratic Republic of the" },
+            { "Tanganyika", "Tanzania" },
+            { "Rhodesia", "Zimbabwe" },
+            { "Swaziland", "Eswatini" },
+            { "Persia", "Iran" },
+            { "Ottoman Empire", "Turkey" },
+            { "Turkiye", "Turkey" },
+            { "Arab Republic of Yemen", "Yemen" },
+            { "People's Republic of Korea", "Korea, North" },
+            { "North Korea", "Korea, North" },
+            { "Republic of Korea", "Korea, South" },
+            { "South Korea", "Korea, South" },
+            { "Myanmar", "Burma" },
+            { "Ceylon", "Sri Lanka" },
+            { "Kampuchea", "Cambodia" },
+            { "Democratic Republic of Vietnam", "Vietnam" },
+            { "East Timor", "Timor-Leste" },
+            { "Italy/Sardinia", "Italy" },
+            { "Tanzania/Tanganyika", "Tanzania" },
+            { "Kyrgyz Republic", "Kyrgyzstan" },
+            { "Korea, People's Republic of", "Korea, North" },
+            { "Korea, Republic of", "Korea, South" },
+            { "Congo, Democratic Republic of", "Congo, Democratic Republic of the" },
+            { "Gambia", "Gambia, The" },
+            { "Cape Verde", "Cabo Verde" },
+            { "Ivory Coast", "Cote d'Ivoire" },
+            { "The Gambia", "Gambia, The" },
+            { "USA", "United States" },
+            { "US", "United States" },
+            { "UK", "United Kingdom" },
+    };
+
     /**
      * checks and standardizes the name of a country. Country name
      * corresponds to borders
@@ -765,65 +5993,70 @@ public class IRoadTrip {
      * @return name of the country, or the original name
      */
     String checkCountry(String country) {
-        if (country.equals("United States of America")) {
-            return "United States";
-        } else if (country.equals("The Bahamas") || country.equals("Bahamas")) {
-            return "Bahamas, The";
-        } else if (country.equals("Surinam")) {
-            return "Suriname";
-        } else if (country.equals("German Federal Republic")) {
-            return "Germany";
-        } else if (country.equals("Czech Republic")) {
-            return "Czechia";
-        } else if (country.equals("Sardinia")) {
-            return "Italy";
-        } else if (country.equals("Macedonia") || country.equals("Former Yugoslav Republic of Macedonia")) {
-            return "North Macedonia";
-        } else if (country.equals("Bosnia-Herzegovina")) {
-            return "Bosnia and Herzegovina";
-        } else if (country.equals("Rumania")) {
-            return "Romania";
-        } else if (country.equals("Soviet Union")) {
-            return "Russia";
-        } else if (country.equals("Byelorussia")) {
-            return "Belarus";
-        } else if (country.equals("Cote D’Ivoire")) {
-            return "Cote d'Ivoire";
-        } else if (country.equals("Upper Volta")) {
-            return "Burkina Faso";
-        } else if (country.equals("Congo") || country.equals("Republic of the Congo")) {
-            return "Congo, Republic of the";
-        } else if (country.equals("Democratic Republic of Zaire") || country.equals("Zaire")
-                || country.equals("Democratic Republic of the Congo")) {
-            return "Congo, Democratic Republic of the";
-        } else if (country.equals("Tanganyika")) {
-            return "Tanzania";
-        } else if (country.equals("Rhodesia")) {
-            return "Zimbabwe";
-        } else if (country.equals("Swaziland")) {
-            return "Eswatini";
-        } else if (country.equals("Persia")) {
-            return "Iran";
-        } else if (country.equals("Ottoman Empire") || country.equals("Turkiye")) {
-            return "Turkey";
-        } else if (country.equals("Arab Republic of Yemen")) {
-            return "Yemen";
-        } else if (country.equals("People's Republic of Korea") || country.equals("North Korea")) {
-            return "Korea, North";
-        } else if (country.equals("Republic of Korea") || country.equals("South Korea")) {
-            return "Korea, South";
-        } else if (country.equals("Myanmar ")) {
-            return "Burma";
-        } else if (country.equals("Ceylon")) {
-            return "Sri Lanka";
-        } else if (country.equals("Kampuchea")) {
-            return "Cambodia";
-        } else if (country.equals("Democratic Republic of Vietnam")) {
-            return "Vietnam";
-        } else if (country.equals("East Timor")) {
-            return "Timor-Leste";
-        }
-        return country;
+        Network net = network;
+        int id = net.names.resolve(country);
+        return id >= 0 ? net.graph.name(id) : country;
+    }
+
+    /**
+     * suggests countries for a name typed in part or with typos, best first:
+     * exact names and aliases, names starting with the input, names with a later
+     * word starting with it, then names a few edits away
+     *
+     * @param input name typed so far
+     * @param limit most suggestions to return
+     * @return names of the suggested countries as used in borders
+     */
+    public List<String> suggestCountries(String input, int limit) {
+        Network net = network;
+        List<String> suggestions = new ArrayList<>();
+        for (int id : net.names.suggester().suggest(input, limit)) {
+            suggestions.add(net.graph.name(id));
+        }
+        return suggestions;
+    }
+
+    /**
+     * resolves a country name leniently: an exact name or alias, else the only
+     * country with a name or a word of one starting with the input, else the
+     * only closest country within a few edits of it. inputs of one or two
+     * characters are not corrected for typos
+     *
+     * @param input name of a country as typed
+     * @return name of the country as used in borders, or null if the input is
+     *         unknown or could mean several countries
+     */
+    public String resolveCountry(String input) {
+        Network net = network;
+        int id = net.names.resolve(input);
+        if (id < 0) {
+            id = net.names.suggester().resolve(input);
+        }
+        return id >= 0 ? net.graph.name(id) : null;
+    }
+
+    /**
+     * resolves a country name typed at the prompt, accepting typos and partial
+     * names that can only mean one country. otherwise prints the suggestions
+     *
+     * @param input name as typed
+     * @return name of the country as used in borders, or null if it is unknown
+     */
+    private String correctCountry(String input) {
+        String country = resolveCountry(input);
+        if (country != null) {
+            if (network.names.resolve(input) < 0) {
+                System.out.println("Using " + country + ".");
+            }
+            return country;
+        }
+
+        System.out.println("Invalid country name. Please enter a valid country name.");
+        List<String> suggestions = suggestCountries(input, 5);
+        if (!suggestions.isEmpty()) {
+            System.out.println("Did you mean: " + String.join("; ", suggestions) + "?");
+        }
+        return null;
     }
 
     /**
@@ -834,62 +6067,427 @@ public class IRoadTrip {
         Scanner scan = new Scanner(System.in);
 
         while (true) {
+            Graph graph = network.graph;
+
             System.out.print("Enter the name of the first country (type EXIT to quit): ");
             String startCountry = scan.nextLine().trim();
-            startCountry = checkCountry(startCountry);
 
             if (startCountry.equalsIgnoreCase("EXIT")) {
                 break;
             }
 
-            if (!countryBorders.containsKey(startCountry)) {
-                System.out.println("Invalid country name. Please enter a valid country name.");
+            startCountry = correctCountry(startCountry);
+            if (startCountry == null) {
                 continue;
             }
 
             System.out.print("Enter the name of the second country (type EXIT to quit: ");
             String endCountry = scan.nextLine().trim();
-            endCountry = checkCountry(endCountry);
 
             if (endCountry.equalsIgnoreCase("EXIT")) {
                 break;
             }
 
-            if (!countryBorders.containsKey(endCountry)) {
-                System.out.println("Invalid country name. Please enter a valid country name.");
+            endCountry = correctCountry(endCountry);
+            if (endCountry == null) {
                 continue;
             }
 
             // checks for islands
-            HashMap<String, Integer> checkIsland1 = graph.get(startCountry);
-            HashMap<String, Integer> checkIsland2 = graph.get(endCountry);
-            if ((checkIsland1 == null || checkIsland1.isEmpty()) || (checkIsland2 == null || checkIsland2.isEmpty())) {
+            int checkIsland1 = graph.id(startCountry);
+            int checkIsland2 = graph.id(endCountry);
+            if (checkIsland1 < 0 || graph.degree(checkIsland1) == 0 || checkIsland2 < 0
+                    || graph.degree(checkIsland2) == 0) {
                 System.out.println("Countries do not share borders.");
                 continue;
             }
 
-            // check if the countries share borders
-            int distance = getDistance(startCountry, endCountry);
-            if (distance == -1) {
+            // check if the countries share borders, one search gives both the
+            // distance and the path
+            Route route = findShortestRoute(startCountry, endCountry);
+            if (!route.found()) {
                 System.out.println("Countries do not share borders.");
                 continue;
             }
 
-            List<String> path = findShortestPath(startCountry, endCountry);
+            printShortestPath(route);
+        }
+
+        scan.close();
+    }
+
+    /**
+     * loads from a snapshot when one exists that is newer than the three data
+     * files, otherwise parses the data files and writes the snapshot for the next
+     * start
+     *
+     * @param args         three file paths representing country borders, capital
+     *                     distances, and state information
+     * @param snapshotPath path of the snapshot file
+     * @return IRoadTrip answering queries on the loaded graph
+     */
+    static IRoadTrip loadWithSnapshot(String[] args, String snapshotPath) {
+        Path snapshot = Paths.get(snapshotPath);
+        try {
+            if (Files.exists(snapshot) && isNewerThan(snapshot, args)) {
+                return fromSnapshot(snapshotPath);
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring snapshot: " + e.getMessage());
+        }
+
+        IRoadTrip roadTrip = new IRoadTrip(args);
+        try {
+            roadTrip.writeSnapshot(snapshotPath);
+        } catch (IOException e) {
+            System.err.println("Could not write snapshot: " + e.getMessage());
+        }
+        return roadTrip;
+    }
+
+    /**
+     * @param file  file to compare
+     * @param paths three data file paths
+     * @return true if file was modified after every data file
+     * @throws IOException if a modification time cannot be read
+     */
+    private static boolean isNewerThan(Path file, String[] paths) throws IOException {
+        for (int i = 0; i < 3; i++) {
+            if (Files.getLastModifiedTime(file).compareTo(Files.getLastModifiedTime(Paths.get(paths[i]))) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * most queries a batch keeps in flight at once. bounds the memory held by
+     * pending results when the input is large
+     */
+    private static final int BATCH_WINDOW = 4096;
 
-            // check if a path is found
-            if (!path.isEmpty()) {
+    /**
+     * answers a batch of queries read from in and writes one result line per
+     * query to out. every input line holds two country names separated by a tab,
+     * blank lines and lines starting with # are skipped. each query runs as its
+     * own task on newQueryExecutor() and all of them see the same network
+     *
+     * @param in      source of the queries
+     * @param out     destination of the results
+     * @param json    true to write JSON lines, false to write tab separated lines
+     * @param ordered true to write results in input order, false to write each
+     *                result as soon as its query completes
+     * @throws IOException          if reading a query or writing a result fails,
+     *                              or a query throws
+     * @throws InterruptedException if interrupted while waiting for a query
+     */
+    public void runBatch(BufferedReader in, Writer out, boolean json, boolean ordered)
+            throws IOException, InterruptedException {
+        Network net = network;
+        ExecutorService executor = newQueryExecutor();
+        try {
+            if (ordered) {
+                ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] query = parseQuery(line);
+                    if (query == null) {
+                        continue;
+                    }
+                    pending.add(executor.submit(() -> formatResult(net, query[0], query[1], json)));
+                    if (pending.size() >= BATCH_WINDOW) {
+                        writeResult(out, pending.poll());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    writeResult(out, pending.poll());
+                }
             } else {
-                System.out.println("No valid path found between " + startCountry + " and " + endCountry);
+                Semaphore inFlight = new Semaphore(BATCH_WINDOW);
+                AtomicReference<IOException> failure = new AtomicReference<>();
+                String line;
+                while ((line = in.readLine()) != null && failure.get() == null) {
+                    String[] query = parseQuery(line);
+                    if (query == null) {
+                        continue;
+                    }
+                    inFlight.acquire();
+                    executor.execute(() -> {
+                        try {
+                            String result = formatResult(net, query[0], query[1], json);
+                            synchronized (out) {
+                                out.write(result);
+                            }
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } catch (RuntimeException e) {
+                            // like the ordered branch, a failed query ends the batch
+                            failure.compareAndSet(null, new IOException("Query failed", e));
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                inFlight.acquire(BATCH_WINDOW);
+                if (failure.get() != null) {
+                    throw failure.get();
+                }
             }
+            out.flush();
+        } finally {
+            executor.shutdown();
         }
+    }
 
-        scan.close();
+    /**
+     * creates the executor batch queries run on, one virtual thread per query
+     * when the runtime has them and one platform thread per core otherwise
+     *
+     * @return executor for batch queries
+     */
+    static ExecutorService newQueryExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // virtual threads need Java 21
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * splits a batch input line into its two country names
+     *
+     * @param line input line
+     * @return {from, to}, or null if the line is blank, a comment or malformed
+     */
+    private static String[] parseQuery(String line) {
+        if (line.isBlank() || line.startsWith("#")) {
+            return null;
+        }
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+            System.err.println("Skipping malformed query: " + line);
+            return null;
+        }
+        return new String[] { line.substring(0, tab).trim(), line.substring(tab + 1).trim() };
+    }
+
+    /**
+     * waits for a pending batch result and writes it
+     *
+     * @param out    destination of the results
+     * @param result pending result line
+     * @throws IOException          if the query failed or writing fails
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void writeResult(Writer out, Future<String> result) throws IOException, InterruptedException {
+        try {
+            out.write(result.get());
+        } catch (ExecutionException e) {
+            throw new IOException("Query failed", e.getCause());
+        }
+    }
+
+    /**
+     * answers one batch query and formats the result as a single output line.
+     * a tab separated line holds from, to, total kilometers and the countries of
+     * the route joined by " --> ", with -1 and an empty route if there is none
+     *
+     * @param net  network to search
+     * @param from name of the starting country
+     * @param to   name of the destination country
+     * @param json true for a JSON line, false for a tab separated line
+     * @return result line including its line break
+     */
+    private String formatResult(Network net, String from, String to, boolean json) {
+        Route route = findShortestRoute(net, from, to);
+        if (!json) {
+            return from + '\t' + to + '\t' + route.totalKm() + '\t'
+                    + String.join(" --> ", route.countries()) + '\n';
+        }
+
+        StringBuilder sb = new StringBuilder(64 + 24 * route.countries().size());
+        sb.append("{\"from\":");
+        appendJsonString(sb, from);
+        sb.append(",\"to\":");
+        appendJsonString(sb, to);
+        if (net.names.resolve(from) < 0) {
+            sb.append(",\"error\":\"unknown country\",\"country\":");
+            appendJsonString(sb, from);
+        } else if (net.names.resolve(to) < 0) {
+            sb.append(",\"error\":\"unknown country\",\"country\":");
+            appendJsonString(sb, to);
+        }
+        sb.append(",\"km\":").append(route.totalKm());
+        appendRouteJson(sb, route);
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * appends the path and per hop distances of a route as JSON members
+     *
+     * @param sb    builder to append to
+     * @param route route to describe
+     */
+    static void appendRouteJson(StringBuilder sb, Route route) {
+        sb.append(",\"path\":[");
+        List<String> countries = route.countries();
+        for (int i = 0; i < countries.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendJsonString(sb, countries.get(i));
+        }
+        sb.append("],\"hopKm\":[");
+        for (int i = 0; i < route.hops(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(route.hopKm(i));
+        }
+        sb.append(']');
+    }
+
+    /**
+     * appends a string as a quoted JSON string literal
+     *
+     * @param sb    builder to append to
+     * @param value string to quote
+     */
+    static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * prints command line usage and exits
+     */
+    private static void usage() {
+        System.err.println("Usage: java IRoadTrip borders.txt capdist.csv state_name.tsv [--snapshot file]"
+                + " [--mode dijkstra|a_star|bidirectional] [--precompute]"
+                + " [--batch file|-] [--format tsv|json] [--unordered] [--watch] [--timings]");
+        System.exit(1);
     }
 
     public static void main(String[] args) {
-        IRoadTrip a3 = new IRoadTrip(args);
+        if (args.length < 3) {
+            usage();
+        }
+
+        String snapshotPath = null;
+        String batchPath = null;
+        SearchMode mode = null;
+        boolean precompute = false;
+        boolean json = false;
+        boolean ordered = true;
+        boolean watch = false;
+        boolean timings = false;
+        try {
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--snapshot":
+                        snapshotPath = args[++i];
+                        break;
+                    case "--mode":
+                        mode = SearchMode.valueOf(args[++i].toUpperCase().replace('-', '_'));
+                        break;
+                    case "--precompute":
+                        precompute = true;
+                        break;
+                    case "--batch":
+                        batchPath = args[++i];
+                        break;
+                    case "--format":
+                        String format = args[++i];
+                        if (!format.equals("tsv") && !format.equals("json")) {
+                            usage();
+                        }
+                        json = format.equals("json");
+                        break;
+                    case "--unordered":
+                        ordered = false;
+                        break;
+                    case "--watch":
+                        watch = true;
+                        break;
+                    case "--timings":
+                        timings = true;
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            usage();
+        }
+
+        IRoadTrip a3;
+        if (snapshotPath != null) {
+            a3 = loadWithSnapshot(args, snapshotPath);
+        } else {
+            a3 = new IRoadTrip(args);
+        }
+        if (timings && a3.loadTimings() != null) {
+            System.err.println("Loaded in " + a3.loadTimings());
+        }
+        if (mode != null) {
+            a3.setSearchMode(mode);
+        }
+        try {
+            a3.registerStatsMBean("main");
+        } catch (JMException e) {
+            System.err.println("Could not publish search statistics: " + e.getMessage());
+        }
+        if (precompute) {
+            a3.precomputeAllPairs();
+        }
+        if (watch) {
+            try {
+                a3.watchDataFiles(args);
+            } catch (IOException e) {
+                System.err.println("Could not watch the data files: " + e.getMessage());
+            }
+        }
+
+        if (batchPath == null) {
+            a3.acceptUserInput();
+            return;
+        }
 
-        a3.acceptUserInput();
+        try (BufferedReader in = batchPath.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(batchPath), StandardCharsets.UTF_8);
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            a3.runBatch(in, out, json, ordered);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,317 @@
+// imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * microbenchmarks for loading the data files, building the graph, resolving
+ * country names and answering queries. every benchmark is warmed up, then timed
+ * over several fixed length iterations; the report gives the mean time per
+ * operation with its spread across iterations, the bytes allocated per
+ * operation and the collections that ran while measuring
+ *
+ * usage: java IRoadTripBenchmark borders.txt capdist.csv state_name.tsv [filter]
+ * where filter keeps only the benchmarks whose name contains it
+ */
+public class IRoadTripBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500_000_000L;
+    private static final int QUERIES_PER_SET = 256;
+    private static final int LONG_ROUTE_HOPS = 8;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * consumes benchmark results so the JIT cannot drop the work producing them
+     */
+    private static long sink;
+
+    /**
+     * one operation of a benchmark
+     */
+    private interface Operation {
+        /**
+         * @param i index of the operation within its iteration
+         * @throws Exception if the operation fails
+         */
+        void run(int i) throws Exception;
+    }
+
+    private final String[] args;
+    private final String filter;
+    private final PrintStream report;
+    private final List<String> countries = new ArrayList<>();
+    private final Set<String> islands = new HashSet<>();
+
+    /**
+     * constructs an IRoadTripBenchmark
+     *
+     * @param args   three file paths representing country borders, capital
+     *               distances, and state information
+     * @param filter run only benchmarks whose name contains this, or null for all
+     * @param report stream the results are printed to
+     * @throws IOException if the borders file cannot be read
+     */
+    IRoadTripBenchmark(String[] args, String filter, PrintStream report) throws IOException {
+        this.args = args;
+        this.filter = filter;
+        this.report = report;
+
+        // every country named on the left of borders.txt, islands have no neighbors
+        for (String line : Files.readAllLines(Paths.get(args[0]))) {
+            int equals = line.indexOf(" = ");
+            if (equals < 0) {
+                continue;
+            }
+            String country = line.substring(0, equals).trim();
+            countries.add(country);
+            if (line.substring(equals + 3).isBlank()) {
+                islands.add(country);
+            }
+        }
+    }
+
+    /**
+     * runs every benchmark matching the filter
+     *
+     * @throws Exception if a benchmark fails
+     */
+    void runAll() throws Exception {
+        report.printf("%-28s %14s %12s %14s %8s %10s%n", "benchmark", "ns/op", "error", "bytes/op", "gcs", "gc ms");
+
+        String bordersText = Files.readString(Paths.get(args[0]));
+        String stateNameText = Files.readString(Paths.get(args[2]));
+
+        benchmark("load.constructor", i -> sink += new IRoadTrip(args).hashCode());
+        benchmark("load.borders", i -> {
+            HashMap<String, List<String>> borders = new HashMap<>();
+            new IRoadTrip().handleBorders(borders, bordersText);
+            sink += borders.size();
+        });
+        benchmark("load.stateNames", i -> new IRoadTrip().processStateName(stateNameText));
+
+        IRoadTrip staged = new IRoadTrip();
+        staged.processStateName(stateNameText);
+        benchmark("load.capdist", i -> staged.processCapDist(Paths.get(args[1]), false));
+
+        staged.handleBorders(staged.countryBorders, bordersText);
+        benchmark("buildGraph", i -> staged.buildGraph());
+
+        IRoadTrip trip = new IRoadTrip(args);
+        String[] names = nameVariants();
+        benchmark("findCountryId", i -> sink += trip.findCountryId(names[i % names.length]));
+        benchmark("checkCountry", i -> sink += trip.checkCountry(names[i % names.length]).length());
+
+        Map<String, String[][]> querySets = querySets(trip);
+
+        // uncached numbers measure the search itself, cached ones repeat traffic
+        for (boolean cached : new boolean[] { false, true }) {
+            trip.setRouteCacheCapacity(cached ? IRoadTrip.RouteCache.DEFAULT_CAPACITY : 0);
+            String suffix = cached ? ".cached" : "";
+            for (Map.Entry<String, String[][]> set : querySets.entrySet()) {
+                String[][] queries = set.getValue();
+                benchmark("getDistance." + set.getKey() + suffix, i -> {
+                    String[] query = queries[i % queries.length];
+                    sink += trip.getDistance(query[0], query[1]);
+                });
+                benchmark("findPath." + set.getKey() + suffix, i -> {
+                    String[] query = queries[i % queries.length];
+                    sink += trip.findPath(query[0], query[1]).size();
+                });
+            }
+        }
+
+        trip.setRouteCacheCapacity(0);
+        String[][] longQueries = querySets.get("long");
+        for (IRoadTrip.SearchMode mode : IRoadTrip.SearchMode.values()) {
+            benchmark("findRoute.long." + mode.name().toLowerCase(), i -> {
+                String[] query = longQueries[i % longQueries.length];
+                sink += trip.findRoute(query[0], query[1], mode).totalKm();
+            });
+        }
+    }
+
+    /**
+     * @return the country names as written in borders.txt together with
+     *         lowercase, padded and historical spellings checkCountry accepts
+     */
+    private String[] nameVariants() {
+        List<String> names = new ArrayList<>();
+        for (String country : countries) {
+            names.add(country);
+            names.add(country.toLowerCase());
+            names.add("  " + country.toUpperCase() + " ");
+        }
+        Collections.addAll(names, "United States of America", "Burma", "Macedonia", "Swaziland", "Zaire",
+                "Turkey (Ottoman Empire)", "Germany, Federal Republic of", "Narnia");
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * sorts every ordered pair of countries into the query sets, then keeps an
+     * evenly spaced sample of each set
+     *
+     * @param trip loaded IRoadTrip used to classify the pairs
+     * @return query sets by name: short (neighbors), long (at least
+     *         LONG_ROUTE_HOPS crossings), unreachable (no route between two
+     *         countries that have borders) and island (a country without borders)
+     */
+    private Map<String, String[][]> querySets(IRoadTrip trip) {
+        Map<String, List<String[]>> sets = new LinkedHashMap<>();
+        for (String name : new String[] { "short", "long", "unreachable", "island" }) {
+            sets.put(name, new ArrayList<>());
+        }
+
+        for (String from : countries) {
+            for (String to : countries) {
+                if (from.equals(to)) {
+                    continue;
+                }
+                String[] query = { from, to };
+                if (islands.contains(from) || islands.contains(to)) {
+                    sets.get("island").add(query);
+                    continue;
+                }
+                IRoadTrip.Route route = trip.findRoute(from, to);
+                if (!route.found()) {
+                    sets.get("unreachable").add(query);
+                } else if (route.hops() == 1) {
+                    sets.get("short").add(query);
+                } else if (route.hops() >= LONG_ROUTE_HOPS) {
+                    sets.get("long").add(query);
+                }
+            }
+        }
+
+        Map<String, String[][]> sampled = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String[]>> set : sets.entrySet()) {
+            List<String[]> all = set.getValue();
+            int count = Math.min(QUERIES_PER_SET, all.size());
+            String[][] queries = new String[count][];
+            for (int i = 0; i < count; i++) {
+                queries[i] = all.get((int) ((long) i * all.size() / count));
+            }
+            sampled.put(set.getKey(), queries);
+        }
+        return sampled;
+    }
+
+    /**
+     * warms up and measures one benchmark, then prints its line of the report
+     *
+     * @param name      name of the benchmark
+     * @param operation operation to time
+     * @throws Exception if the operation fails
+     */
+    private void benchmark(String name, Operation operation) throws Exception {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+
+        double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+        long ops = 0;
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        long allocated = -THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long[] result = iteration(operation);
+            nanosPerOp[i] = (double) result[1] / result[0];
+            ops += result[0];
+        }
+        allocated += THREADS.getCurrentThreadAllocatedBytes();
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= nanosPerOp.length;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(variance / (nanosPerOp.length - 1));
+
+        report.printf("%-28s %14.1f %12.1f %14.1f %8d %10d%n", name, mean, deviation, (double) allocated / ops,
+                gcCount, gcMillis);
+    }
+
+    /**
+     * runs an operation repeatedly for ITERATION_NANOS. the clock is read once per
+     * batch of operations, and the batch grows until it takes about a
+     * microsecond, so reading the clock does not dominate short operations
+     *
+     * @param operation operation to time
+     * @return {operations run, nanoseconds taken}
+     * @throws Exception if the operation fails
+     */
+    private static long[] iteration(Operation operation) throws Exception {
+        int batch = 1;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now = start;
+        while (now - start < ITERATION_NANOS) {
+            long batchStart = now;
+            for (int i = 0; i < batch; i++) {
+                operation.run((int) ops + i);
+            }
+            ops += batch;
+            now = System.nanoTime();
+            if (now - batchStart < 1_000 && batch < (1 << 20)) {
+                batch *= 2;
+            }
+        }
+        return new long[] { ops, now - start };
+    }
+
+    /**
+     * @return collections run so far by every collector
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return milliseconds spent collecting so far by every collector
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java IRoadTripBenchmark borders.txt capdist.csv state_name.tsv [filter]");
+            System.exit(1);
+        }
+
+        // findPath prints every route it finds, keep that out of the report
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            new IRoadTripBenchmark(args, args.length > 3 ? args[3] : null, report).runAll();
+        } finally {
+            System.setOut(report);
+        }
+        System.out.println("sink " + sink);
+    }
+}
@@ -0,0 +1,1136 @@
+// imports
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * checks for IRoadTrip against the data files. the faster search modes and
+ * query APIs are compared with plain dijkstras or brute force over every pair
+ * of countries, so a check fails on the first query whose answer differs
+ *
+ * usage: java IRoadTripTest borders.txt capdist.csv state_name.tsv [filter]
+ * where filter keeps only the checks whose name contains it. exits with 1 if
+ * any check fails
+ */
+public class IRoadTripTest {
+    /**
+     * one check, failing by throwing
+     */
+    private interface Check {
+        /**
+         * @throws Exception if the check fails
+         */
+        void run() throws Exception;
+    }
+
+    private final String[] args;
+    private final String filter;
+    private final PrintStream report;
+    private final List<String> countries = new ArrayList<>();
+    private int failures;
+
+    /**
+     * constructs an IRoadTripTest
+     *
+     * @param args   three file paths representing country borders, capital
+     *               distances, and state information
+     * @param filter run only checks whose name contains this, or null for all
+     * @param report stream the results are printed to
+     * @throws Exception if the borders file cannot be read
+     */
+    IRoadTripTest(String[] args, String filter, PrintStream report) throws Exception {
+        this.args = args;
+        this.filter = filter;
+        this.report = report;
+
+        // every country named on the left of borders.txt
+        for (String line : Files.readAllLines(Paths.get(args[0]))) {
+            int equals = line.indexOf(" = ");
+            if (equals > 0) {
+                countries.add(line.substring(0, equals).trim());
+            }
+        }
+    }
+
+    /**
+     * runs every check matching the filter
+     *
+     * @return number of checks that failed
+     */
+    int runAll() {
+        check("borderParser", this::borderParser);
+        check("capitalNames", this::capitalNames);
+        check("nameSuggestions", this::nameSuggestions);
+        check("searchModes", this::searchModes);
+        check("parallelQueries", this::parallelQueries);
+        check("borderChanges", this::borderChanges);
+        check("routeCacheRetain", this::routeCacheRetain);
+        check("kShortestPaths", this::kShortestPaths);
+        check("distanceMatrix", this::distanceMatrix);
+        check("tripPlanner", this::tripPlanner);
+        check("reachableWithin", this::reachableWithin);
+        check("reload", this::reload);
+        check("dataWatcher", this::dataWatcher);
+        check("searchStats", this::searchStats);
+        check("batch", this::batch);
+        check("serverBatch", this::serverBatch);
+        check("snapshot", this::snapshot);
+        check("stateTerritories", this::stateTerritories);
+        return failures;
+    }
+
+    /**
+     * handleBorders reads borders.txt and malformed lines into the same countries
+     * and neighbors as the regular expression parser it replaced
+     */
+    private void borderParser() throws Exception {
+        String[] lines = {
+                // blank and whitespace only lines
+                "", "   ", "\t",
+                // no "=", or nothing after it
+                "Narnia", "Narnia 12 km", "Narnia =", "Narnia ==", "=", " = ",
+                // islands and empty entries
+                "Narnia = ", "Narnia = ;", "Narnia = ;;", "Narnia = Oz 3 km;", "Narnia = Oz 3 km; ",
+                "Narnia = Oz 3 km;; Lilliput 4 km", "Narnia = Oz 3 km; ; Lilliput 4 km", "Narnia = ; Oz 3 km",
+                // nested, unclosed and empty parentheses, and ones hiding "=" or ";"
+                "Narnia = Oz (Emerald (City) Gate) 3 km", "Narnia = Oz (Emerald 3 km; Lilliput 4 km",
+                "Narnia (Old = New; Town) = Oz 3 km", "Narnia = () Oz 3 km", "Narnia = Oz(x)Land 3 km",
+                "Narnia = (Oz) 3 km; Lilliput 4 km",
+                // more than one "=", lengths with and without a name, odd spacing
+                "Narnia = Oz 3 km = Lilliput 4 km", "Narnia == Oz 3 km", "Narnia = 3 km", "Narnia = 1,234.5 km",
+                "Narnia =Oz 3 km;Lilliput\t4 km", "  Narnia   =   Oz   Land   3   km  ", "Narnia = Oz km",
+                "Narnia = Oz 3km", "Narnia = Oz 3 kms", };
+
+        List<String> contents = new ArrayList<>();
+        contents.add(Files.readString(Paths.get(args[0])));
+        contents.add(String.join("\r\n", lines));
+        for (String line : lines) {
+            contents.add(line);
+        }
+        for (String content : contents) {
+            HashMap<String, List<String>> expected = new HashMap<>();
+            regexBorders(expected, content);
+            HashMap<String, List<String>> actual = new HashMap<>();
+            new IRoadTrip().handleBorders(actual, content);
+            String what = content.length() > 80 ? "borders.txt" : "\"" + content + "\"";
+            assertEquals(expected, actual, what);
+        }
+    }
+
+    /**
+     * the border parser handleBorders replaced: it drops lengths and parentheses
+     * with regular expressions, then splits on "=", ";" and whitespace
+     */
+    private static void regexBorders(HashMap<String, List<String>> countryBorders, String fileContent) {
+        Scanner scan = new Scanner(fileContent);
+        while (scan.hasNextLine()) {
+            String line = scan.nextLine();
+            line = line.replaceAll("\\b[\\d,\\.]+\\s*km\\b", "");
+            line = line.replaceAll("\\([^)]*\\)", "");
+
+            String[] parts = line.split("=");
+            if (parts.length >= 2) {
+                List<String> neighbors = new ArrayList<>();
+                for (String border : parts[1].trim().split(";")) {
+                    neighbors.add(border.trim().split("\\s+")[0]);
+                }
+                countryBorders.put(parts[0].trim(), neighbors);
+            }
+        }
+        scan.close();
+    }
+
+    /**
+     * capdist rows are matched to countries by name apart from case and
+     * surrounding blanks only, so "Cote d'Ivoire" keeps its original edges and the
+     * west african distances stay what they were before the name lookup was hashed
+     */
+    private void capitalNames() {
+        IRoadTrip trip = new IRoadTrip(args);
+        assertTrue(trip.findCountryId("France") >= 0, "France has a state number");
+        assertEquals(trip.findCountryId("France"), trip.findCountryId("  fRANCE "), "case and blanks");
+        assertEquals(-1, trip.findCountryId("Cote d'Ivoire"), "Cote d'Ivoire has no capdist row");
+
+        String[][] pairs = { { "Cote d'Ivoire", "Liberia" }, { "Liberia", "Cote d'Ivoire" }, { "Ghana", "Liberia" },
+                { "Benin", "Liberia" }, { "Nigeria", "Liberia" }, { "Togo", "Sierra Leone" }, };
+        int[] expected = { 1433, 608, 2052, 2372, 2446, 1865 };
+        for (int i = 0; i < pairs.length; i++) {
+            assertEquals(expected[i], trip.getDistance(pairs[i][0], pairs[i][1]), pairs[i][0] + " -> " + pairs[i][1]);
+        }
+    }
+
+    /**
+     * resolveCountry takes typos and partial names that can mean only one
+     * country, short ones only as a name or prefix, and suggestCountries ranks
+     * exact names before prefixes before typos
+     */
+    private void nameSuggestions() {
+        IRoadTrip trip = new IRoadTrip(args);
+        String[][] resolved = { { "Frnace", "France" }, { "germny", "Germany" }, { "Bh", "Bhutan" },
+                { "q", "Qatar" }, { "UK", "United Kingdom" }, { "Ch", null }, { "Bx", null }, { "", null },
+                { "korea", null }, { "Korea, Sout", "Korea, South" }, };
+        for (String[] pair : resolved) {
+            assertEquals(pair[1], trip.resolveCountry(pair[0]), "resolveCountry \"" + pair[0] + "\"");
+        }
+
+        assertEquals(List.of("Chad", "Chile", "China"), trip.suggestCountries("Ch", 3), "suggest Ch");
+        assertEquals(List.of("Korea, North", "Korea, South"), trip.suggestCountries("korea", 2), "suggest korea");
+        assertEquals("Iran", trip.suggestCountries("Iran", 5).get(0), "suggest Iran");
+        assertEquals(List.of(), trip.suggestCountries("Iran", 0), "suggest nothing");
+        for (String country : countries) {
+            String name = trip.resolveCountry(country);
+            assertTrue(name != null, "resolveCountry " + country);
+            assertEquals(name, trip.resolveCountry(country.toUpperCase()), "resolveCountry upper case " + country);
+            assertEquals(name, trip.suggestCountries(country, 1).get(0), "suggest " + country);
+        }
+    }
+
+    /**
+     * A* and bidirectional answer every ordered pair of countries with the
+     * distance dijkstras finds, over a route made of real crossings
+     */
+    private void searchModes() {
+        IRoadTrip trip = new IRoadTrip(args);
+        trip.setRouteCacheCapacity(0);
+        for (String from : countries) {
+            for (String to : countries) {
+                IRoadTrip.Route expected = trip.findRoute(from, to, IRoadTrip.SearchMode.DIJKSTRA);
+                for (IRoadTrip.SearchMode mode : IRoadTrip.SearchMode.values()) {
+                    IRoadTrip.Route route = trip.findRoute(from, to, mode);
+                    String query = mode + " " + from + " -> " + to;
+                    assertEquals(expected.totalKm(), route.totalKm(), query);
+                    assertRoute(trip, route, query);
+                }
+            }
+        }
+    }
+
+    /**
+     * the parallel batch API and threads querying one IRoadTrip at the same time
+     * answer every ordered pair of countries like single queries do
+     */
+    private void parallelQueries() throws Exception {
+        IRoadTrip trip = new IRoadTrip(args);
+        trip.setRouteCacheCapacity(0);
+        List<String[]> queries = new ArrayList<>();
+        int[] expected = new int[countries.size() * countries.size()];
+        for (String from : countries) {
+            for (String to : countries) {
+                expected[queries.size()] = trip.getDistance(from, to);
+                queries.add(new String[] { from, to });
+            }
+        }
+
+        List<IRoadTrip.Route> routes = trip.findRoutes(queries);
+        assertEquals(queries.size(), routes.size(), "findRoutes results");
+        for (int i = 0; i < routes.size(); i++) {
+            String query = queries.get(i)[0] + " -> " + queries.get(i)[1];
+            assertEquals(expected[i], routes.get(i).totalKm(), "findRoutes " + query);
+            assertRoute(trip, routes.get(i), "findRoutes " + query);
+        }
+
+        // each thread walks the queries from its own offset with its own mode
+        trip.setRouteCacheCapacity(IRoadTrip.RouteCache.DEFAULT_CAPACITY);
+        IRoadTrip.SearchMode[] modes = IRoadTrip.SearchMode.values();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t * queries.size() / 4;
+                IRoadTrip.SearchMode mode = modes[t % modes.length];
+                threads.add(executor.submit(() -> {
+                    for (int i = 0; i < queries.size(); i++) {
+                        int q = (offset + i) % queries.size();
+                        String[] query = queries.get(q);
+                        assertEquals(expected[q], trip.findRoute(query[0], query[1], mode).totalKm(),
+                                "concurrent " + mode + " " + query[0] + " -> " + query[1]);
+                        assertEquals(expected[q], trip.getDistance(query[0], query[1]),
+                                "concurrent getDistance " + query[0] + " -> " + query[1]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> thread : threads) {
+                try {
+                    thread.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * border changes leave the cached routes and the all pairs table answering
+     * every ordered pair of countries like a fresh search does
+     */
+    private void borderChanges() {
+        IRoadTrip cached = new IRoadTrip(args);
+        IRoadTrip allPairs = new IRoadTrip(args);
+        IRoadTrip searched = new IRoadTrip(args);
+        cached.setRouteCacheCapacity(countries.size() * countries.size());
+        allPairs.precomputeAllPairs();
+        searched.setRouteCacheCapacity(0);
+        for (String from : countries) {
+            for (String to : countries) {
+                cached.getDistance(from, to);
+            }
+        }
+
+        // shortcuts, detours, removals, new borders between components and
+        // random changes; a missing km removes the border
+        List<String[]> changes = new ArrayList<>(Arrays.asList(new String[][] {
+                { "France", "Spain", "100" }, { "Germany", "Poland", null }, { "Germany", "Poland", "5000" },
+                { "Portugal", "China", "1" }, { "Portugal", "China", null }, { "Canada", "Mexico", "10" },
+                { "Panama", "Colombia", null }, { "Brazil", "Nigeria", "3000" }, { "Russia", "China", null },
+                { "Russia", "China", "99999" } }));
+        Random random = new Random(42);
+        while (changes.size() < 16) {
+            String from = countries.get(random.nextInt(countries.size()));
+            String to = countries.get(random.nextInt(countries.size()));
+            if (!from.equals(to) && searched.componentOf(from) >= 0 && searched.componentOf(to) >= 0) {
+                changes.add(new String[] { from, to, random.nextBoolean() ? null : "" + (50 + random.nextInt(3000)) });
+            }
+        }
+
+        for (String[] change : changes) {
+            String what = change[2] == null ? "remove " + change[0] + " -> " + change[1]
+                    : "set " + change[0] + " -> " + change[1] + " " + change[2];
+            int previous = -2;
+            for (IRoadTrip trip : new IRoadTrip[] { searched, cached, allPairs }) {
+                int result = change[2] == null ? trip.removeBorder(change[0], change[1])
+                        : trip.setBorder(change[0], change[1], Integer.parseInt(change[2]));
+                assertTrue(previous == -2 || previous == result, what + ": previous distance differs");
+                previous = result;
+            }
+
+            for (String from : countries) {
+                for (String to : countries) {
+                    int expected = searched.findRoute(from, to, IRoadTrip.SearchMode.DIJKSTRA).totalKm();
+                    for (IRoadTrip trip : new IRoadTrip[] { cached, allPairs }) {
+                        String query = what + ", then " + (trip == cached ? "cached " : "all pairs ") + from + " -> "
+                                + to;
+                        assertEquals(expected, trip.getDistance(from, to), query);
+                        IRoadTrip.Route route = trip.findRoute(from, to);
+                        assertEquals(expected, route.totalKm(), query);
+                        assertRoute(searched, route, query);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * retain counts every dropped route once. on a symmetric graph a route and
+     * its reverse share one entry, and it stays one entry when the new graph is
+     * symmetric too; on a graph that is not, each direction is kept or dropped
+     * on its own
+     */
+    private void routeCacheRetain() {
+        String[] names = { "A", "B", "C" };
+        IRoadTrip.Graph symmetric = new IRoadTrip.Graph(names, new int[] { 0, 1, 3, 4 }, new int[] { 1, 0, 2, 1 },
+                new int[] { 5, 5, 7, 7 });
+        IRoadTrip.Graph longer = new IRoadTrip.Graph(names, new int[] { 0, 1, 3, 4 }, new int[] { 1, 0, 2, 1 },
+                new int[] { 6, 6, 7, 7 });
+        IRoadTrip.Graph oneWay = new IRoadTrip.Graph(names, new int[] { 0, 1, 3, 4 }, new int[] { 1, 0, 2, 1 },
+                new int[] { 6, 5, 7, 7 });
+        IRoadTrip.Route ac = new IRoadTrip.Route(12, List.of("A", "B", "C"), new int[] { 5, 7 });
+        IRoadTrip.Route bc = new IRoadTrip.Route(7, List.of("B", "C"), new int[] { 7 });
+
+        IRoadTrip.RouteCache cache = new IRoadTrip.RouteCache(symmetric, 16);
+        cache.put(0, 2, ac);
+        cache.put(1, 2, bc);
+        IRoadTrip.RouteCache kept = cache.retain(longer, (start, end, route) -> !route.countries().contains("A"));
+        assertEquals(1L, kept.invalidations(), "one dropped route on a symmetric graph");
+        assertEquals(1, kept.size(), "routes kept on a symmetric graph");
+        assertEquals(7, kept.get(2, 1).totalKm(), "reverse of a kept route");
+
+        // the statistics carry over, so count from where the first copy left them
+        long before = cache.invalidations();
+        IRoadTrip.RouteCache split = cache.retain(oneWay, (start, end, route) -> start != 0);
+        assertEquals(1L, split.invalidations() - before, "one dropped direction on a one way graph");
+        assertEquals(3, split.size(), "directions kept on a one way graph");
+    }
+
+    /**
+     * findPaths returns the same distances as enumerating every loopless route
+     * in order of length, for a sample of pairs within a component
+     */
+    private void kShortestPaths() {
+        IRoadTrip trip = new IRoadTrip(args);
+        IRoadTrip.Graph graph = trip.graph();
+        Random random = new Random(7);
+        int k = 6;
+        for (int q = 0; q < 200; q++) {
+            String from = countries.get(random.nextInt(countries.size()));
+            String to = countries.get(random.nextInt(countries.size()));
+            String query = from + " -> " + to;
+            List<IRoadTrip.Route> routes = trip.findPaths(from, to, k);
+
+            Set<List<String>> distinct = new HashSet<>();
+            int[] lengths = new int[routes.size()];
+            for (int i = 0; i < routes.size(); i++) {
+                IRoadTrip.Route route = routes.get(i);
+                List<String> path = route.countries();
+                assertTrue(distinct.add(path), query + ": route " + path + " returned twice");
+                assertEquals(path.size(), new HashSet<>(path).size(), query + ": route " + path + " has a loop");
+                assertEdges(graph, route, query);
+                lengths[i] = route.totalKm();
+            }
+            if (!routes.isEmpty()) {
+                assertEquals(trip.getDistance(from, to), lengths[0], query + " first route");
+            }
+            assertEquals(Arrays.toString(looplessLengths(graph, graph.id(trip.resolveCountry(from)),
+                    graph.id(trip.resolveCountry(to)), k)), Arrays.toString(lengths), query + " route lengths");
+        }
+    }
+
+    /**
+     * getDistances over every pair of countries, and distanceMatrix with routes
+     * over a sample holding repeats and an unknown name, answer like getDistance,
+     * with and without the all pairs table
+     */
+    private void distanceMatrix() {
+        IRoadTrip trip = new IRoadTrip(args);
+        trip.setRouteCacheCapacity(0);
+        List<String> sample = new ArrayList<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 40; i++) {
+            sample.add(countries.get(random.nextInt(countries.size())));
+        }
+        Collections.addAll(sample, "France", "france", "Narnia");
+
+        for (boolean precomputed : new boolean[] { false, true }) {
+            if (precomputed) {
+                trip.precomputeAllPairs();
+            }
+            String table = precomputed ? "all pairs " : "";
+
+            int[][] km = trip.getDistances(countries, countries);
+            for (int i = 0; i < countries.size(); i++) {
+                for (int j = 0; j < countries.size(); j++) {
+                    assertEquals(trip.getDistance(countries.get(i), countries.get(j)), km[i][j],
+                            table + "getDistances " + countries.get(i) + " -> " + countries.get(j));
+                }
+            }
+
+            IRoadTrip.DistanceMatrix matrix = trip.distanceMatrix(sample, sample, true);
+            assertTrue(matrix.hasRoutes(), table + "distanceMatrix keeps routes");
+            for (int i = 0; i < sample.size(); i++) {
+                for (int j = 0; j < sample.size(); j++) {
+                    String query = table + "distanceMatrix " + sample.get(i) + " -> " + sample.get(j);
+                    int expected = trip.getDistance(sample.get(i), sample.get(j));
+                    assertEquals(expected, matrix.distance(i, j), query);
+                    IRoadTrip.Route route = matrix.route(i, j);
+                    assertEquals(expected, route.totalKm(), query + " route");
+                    assertEdges(trip.graph(), route, query);
+                }
+            }
+        }
+    }
+
+    /**
+     * planTrip finds the shortest order of up to seven waypoints that trying
+     * every permutation finds, and plans longer trips as valid routes through
+     * every stop. the stops are drawn from the countries France can reach and
+     * be reached from, so every trip can be driven
+     */
+    private void tripPlanner() {
+        IRoadTrip trip = new IRoadTrip(args);
+        IRoadTrip.Graph graph = trip.graph();
+        List<String> component = new ArrayList<>();
+        for (String country : countries) {
+            if (trip.getDistance("France", country) >= 0 && trip.getDistance(country, "France") >= 0) {
+                component.add(trip.resolveCountry(country));
+            }
+        }
+
+        Random random = new Random(5);
+        for (int q = 0; q < 80; q++) {
+            boolean small = q < 60;
+            int waypointCount = small ? random.nextInt(8) : 14 + random.nextInt(6);
+            List<String> waypoints = new ArrayList<>();
+            for (int i = 0; i < waypointCount; i++) {
+                waypoints.add(component.get(random.nextInt(component.size())).toUpperCase());
+            }
+            String start = component.get(random.nextInt(component.size()));
+            String end = q % 5 == 0 ? start : component.get(random.nextInt(component.size()));
+            String query = start + " -> " + waypoints + " -> " + end;
+            IRoadTrip.Trip planned = trip.planTrip(start.toLowerCase(), end, waypoints);
+
+            // the stops the trip has to make, in graph names
+            List<String> stops = new ArrayList<>();
+            stops.add(start);
+            for (String waypoint : waypoints) {
+                String country = trip.resolveCountry(waypoint);
+                if (!stops.contains(country) && !country.equals(end)) {
+                    stops.add(country);
+                }
+            }
+            stops.add(end);
+
+            int[][] km = trip.getDistances(stops, stops);
+            assertTrue(planned.found(), query + ": no trip planned");
+            assertEquals(stops.size(), planned.stops().size(), query + " stops");
+            assertEquals(new HashSet<>(stops), new HashSet<>(planned.stops()), query + " stops");
+            assertEquals(start, planned.stops().get(0), query + " first stop");
+            assertEquals(end, planned.stops().get(stops.size() - 1), query + " last stop");
+            assertEdges(graph, planned.route(), query);
+            int length = 0;
+            for (int i = 1; i < stops.size(); i++) {
+                length += km[stops.indexOf(planned.stops().get(i - 1))][stops.indexOf(planned.stops().get(i))];
+            }
+            assertEquals(length, planned.totalKm(), query + " length of the stops in order");
+
+            assertEquals(stops.size() - 2 <= 12, planned.exact(), query + " exact");
+            if (small) {
+                assertEquals(shortestOrder(km), planned.totalKm(), query + " shortest order");
+            }
+        }
+    }
+
+    /**
+     * reachableWithin finds exactly the countries getDistance puts within the
+     * budget, nearest first, and streams the same ones to a consumer that runs
+     * queries of its own
+     */
+    private void reachableWithin() {
+        IRoadTrip trip = new IRoadTrip(args);
+        for (int i = 0; i < countries.size(); i += 7) {
+            String from = countries.get(i);
+            for (int maxKm : new int[] { 0, 500, 1500, 3000, 20000 }) {
+                String query = from + " within " + maxKm + " km";
+                Map<String, Integer> expected = new HashMap<>();
+                for (String to : countries) {
+                    int km = trip.getDistance(from, to);
+                    String country = trip.resolveCountry(to);
+                    if (km >= 0 && km <= maxKm && !country.equals(trip.resolveCountry(from))) {
+                        expected.put(country, km);
+                    }
+                }
+
+                Map<String, Integer> reachable = trip.reachableWithin(from, maxKm);
+                assertEquals(expected, new HashMap<>(reachable), query);
+                int previous = 0;
+                for (int km : reachable.values()) {
+                    assertTrue(km >= previous, query + ": " + reachable + " is not nearest first");
+                    previous = km;
+                }
+
+                List<String> streamed = new ArrayList<>();
+                trip.reachableWithin(from, maxKm, (country, km) -> {
+                    assertEquals(km, trip.getDistance(from, country), query + " streamed " + country);
+                    streamed.add(country);
+                });
+                assertEquals(new ArrayList<>(reachable.keySet()), streamed, query + " streamed");
+            }
+        }
+    }
+
+    /**
+     * reload replaces runtime border changes with the file contents, keeps the
+     * all pairs table and the cache capacity, starts a cache that counts no
+     * invalidations for the routes it dropped, and swaps the state lookups and
+     * load timings with the graph
+     */
+    private void reload() throws Exception {
+        IRoadTrip fresh = new IRoadTrip(args);
+        IRoadTrip trip = new IRoadTrip(args);
+        trip.setRouteCacheCapacity(7);
+        trip.setBorder("France", "Spain", 1);
+        for (int i = 0; i < countries.size(); i += 11) {
+            trip.findRoute("France", countries.get(i));
+        }
+        assertTrue(trip.routeCache().size() > 0, "routes cached before the reload");
+        trip.precomputeAllPairs();
+
+        trip.reload(args);
+        assertEquals(7, trip.routeCache().capacity(), "cache capacity");
+        assertEquals(0, trip.routeCache().size(), "cached routes");
+        assertEquals(0L, trip.routeCache().invalidations(), "cache invalidations");
+        for (String from : countries) {
+            for (int i = 0; i < countries.size(); i += 5) {
+                String to = countries.get(i);
+                assertEquals(fresh.getDistance(from, to), trip.getDistance(from, to), from + " -> " + to);
+            }
+        }
+
+        // the state numbers and capital distances come from the reloaded files
+        Path directory = Files.createTempDirectory("reload");
+        Path stateNames = directory.resolve("state_name.tsv");
+        try {
+            Files.writeString(stateNames, Files.readString(Paths.get(args[2])).replace("\tFrance\t", "\tFrankreich\t"));
+            IRoadTrip.LoadTimings timings = trip.loadTimings();
+            assertEquals(220, trip.findCountryId("France"), "France before the reload");
+            trip.reload(new String[] { args[0], args[1], stateNames.toString() });
+            assertEquals(-1, trip.findCountryId("France"), "France after the reload");
+            assertEquals(220, trip.findCountryId("Frankreich"), "Frankreich after the reload");
+            assertEquals(fresh.capitalDistance(220, 255), trip.capitalDistance(220, 255), "Paris -> Berlin");
+            assertTrue(trip.loadTimings() != timings, "load timings of the reload");
+        } finally {
+            Files.deleteIfExists(stateNames);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * the data watcher survives a reload failing with an Error, counts and
+     * records it, reloads on the next change and stops watching once closed
+     */
+    private void dataWatcher() throws Exception {
+        Path directory = Files.createTempDirectory("dataWatcher");
+        String[] copies = new String[3];
+        for (int i = 0; i < 3; i++) {
+            copies[i] = Files.copy(Paths.get(args[i]), directory.resolve(Paths.get(args[i]).getFileName())).toString();
+        }
+        boolean[] broken = { true };
+        IRoadTrip trip = new IRoadTrip(copies) {
+            @Override
+            public void reload(String[] files) throws IOException {
+                if (broken[0]) {
+                    throw new StackOverflowError("deeply nested borders");
+                }
+                super.reload(files);
+            }
+        };
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        IRoadTrip.DataWatcher watcher = trip.watchDataFiles(copies);
+        try {
+            Files.writeString(Paths.get(copies[0]), Files.readString(Paths.get(args[0])) + "\n");
+            awaitCount(watcher::failures, "failed reloads");
+            assertTrue(watcher.lastError() instanceof StackOverflowError, "last error");
+            assertTrue(watcher.isWatching(), "watching after the Error");
+
+            broken[0] = false;
+            Files.writeString(Paths.get(copies[0]), Files.readString(Paths.get(args[0])));
+            awaitCount(watcher::reloads, "reloads");
+            assertEquals(1L, watcher.failures(), "failed reloads after the good one");
+        } finally {
+            watcher.close();
+            System.setErr(err);
+            for (String copy : copies) {
+                Files.deleteIfExists(Paths.get(copy));
+            }
+            Files.delete(directory);
+        }
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (watcher.isWatching() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(!watcher.isWatching(), "watching after close");
+    }
+
+    /**
+     * waits up to ten seconds for a watcher counter to reach one
+     */
+    private static void awaitCount(LongSupplier count, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (count.getAsLong() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1L, count.getAsLong(), what);
+    }
+
+    /**
+     * every query API counts in the search statistics, and a JFR recording that
+     * enables IRoadTrip.Search gets one event per query
+     */
+    private void searchStats() throws Exception {
+        IRoadTrip trip = new IRoadTrip(args);
+        IRoadTrip.SearchStats stats = trip.searchStats();
+        Path file = Files.createTempFile("searchStats", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("IRoadTrip.Search");
+            recording.start();
+            trip.getDistance("France", "Germany");
+            trip.findPath("France", "Germany");
+            trip.findRoute("France", "Germany");
+            trip.findRoute("France", "Germany", IRoadTrip.SearchMode.A_STAR);
+            trip.findRoute("France", "Germany", LocalDate.of(2000, 1, 1));
+            trip.findPaths("France", "Germany", 3);
+            trip.getDistances(List.of("France", "Spain"), List.of("Germany", "Narnia"));
+            trip.planTrip("France", "Spain", List.of("Germany"));
+            trip.reachableWithin("France", 1000);
+            trip.reachableWithin("Narnia", 1000);
+            recording.stop();
+            recording.dump(file);
+
+            Map<String, Integer> events = new TreeMap<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                events.merge(event.getString("query"), 1, Integer::sum);
+            }
+            assertEquals(Map.of("distance", 1, "path", 4, "paths", 1, "matrix", 2, "reachable", 2), events,
+                    "events");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        assertEquals(1L, stats.getDistanceQueries(), "distance queries");
+        assertEquals(4L, stats.getPathQueries(), "path queries");
+        assertEquals(1L, stats.getKPathsQueries(), "k paths queries");
+        assertEquals(2L, stats.getMatrixQueries(), "matrix queries");
+        assertEquals(2L, stats.getReachableQueries(), "reachable queries");
+        assertEquals(2L, stats.getUnknownNames(), "unknown names");
+        assertTrue(stats.getSearches() >= 9, "searches " + stats.getSearches());
+        assertTrue(stats.getNodesSettled() > 0, "nodes settled");
+    }
+
+    /**
+     * runBatch answers every query in either order like getDistance, and a
+     * failing task ends an unordered batch with an IOException instead of
+     * silently dropping its line
+     */
+    private void batch() throws Exception {
+        IRoadTrip trip = new IRoadTrip(args);
+        StringBuilder input = new StringBuilder("# comment\n\nmalformed\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < countries.size(); i += 3) {
+            String from = countries.get(i);
+            String to = countries.get((i * 7) % countries.size());
+            input.append(from).append('\t').append(to).append('\n');
+            expected.add(from + '\t' + to + '\t' + trip.getDistance(from, to));
+        }
+
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (boolean ordered : new boolean[] { true, false }) {
+                StringWriter out = new StringWriter();
+                trip.runBatch(new BufferedReader(new StringReader(input.toString())), out, false, ordered);
+                List<String> lines = new ArrayList<>();
+                for (String line : out.toString().split("\n")) {
+                    lines.add(line.substring(0, line.lastIndexOf('\t')));
+                }
+                if (!ordered) {
+                    Collections.sort(lines);
+                    Collections.sort(expected);
+                }
+                assertEquals(expected, lines, ordered ? "ordered" : "unordered");
+            }
+
+            Writer broken = new Writer() {
+                @Override
+                public void write(char[] buffer, int offset, int length) {
+                    throw new IllegalStateException("broken writer");
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            try {
+                trip.runBatch(new BufferedReader(new StringReader(input.toString())), broken, false, false);
+                throw new AssertionError("unordered batch with a failing task did not throw");
+            } catch (IOException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException, "cause " + e.getCause());
+            }
+        } finally {
+            System.setErr(err);
+        }
+    }
+
+    /**
+     * the server's /batch answers a small batch, and answers 413 to one with too
+     * many queries or too many bytes, with or without a declared length
+     */
+    private void serverBatch() throws Exception {
+        RoadTripServer server = new RoadTripServer(new IRoadTrip(args), new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://127.0.0.1:" + server.port() + "/batch");
+
+            HttpResponse<String> small = post(client, uri, "France\tSpain\n# comment\nFrance\tGermany\n", true);
+            assertEquals(200, small.statusCode(), "small batch " + small.body());
+            assertTrue(small.body().startsWith("[{\"from\":\"France\",\"to\":\"Spain\""), small.body());
+
+            StringBuilder many = new StringBuilder();
+            for (int i = 0; i <= RoadTripServer.MAX_BATCH_QUERIES; i++) {
+                many.append("France\tSpain\n");
+            }
+            assertEquals(413, post(client, uri, many.toString(), true).statusCode(), "too many queries");
+
+            String large = "#" + "x".repeat(RoadTripServer.MAX_BATCH_BYTES) + "\n";
+            assertEquals(413, post(client, uri, large, true).statusCode(), "large body with a length");
+            assertEquals(413, post(client, uri, large, false).statusCode(), "large chunked body");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * posts a body, with a Content-Length or chunked
+     */
+    private static HttpResponse<String> post(HttpClient client, URI uri, String body, boolean withLength)
+            throws Exception {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        HttpRequest.BodyPublisher publisher = withLength ? HttpRequest.BodyPublishers.ofByteArray(bytes)
+                : HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(bytes));
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(publisher).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * a snapshot written over an existing one reads back to the same distances
+     * and leaves no temporary file behind, and one whose counts do not fit its
+     * size is refused even when its checksum matches
+     */
+    private void snapshot() throws Exception {
+        IRoadTrip trip = new IRoadTrip(args);
+        Path directory = Files.createTempDirectory("snapshot");
+        Path file = directory.resolve("graph.snapshot");
+        try {
+            Files.writeString(file, "an older, longer file that the snapshot replaces in one step");
+            trip.writeSnapshot(file.toString());
+            trip.writeSnapshot(file.toString());
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(List.of(file), files.collect(Collectors.toList()), "files");
+            }
+            IRoadTrip loaded = IRoadTrip.fromSnapshot(file.toString());
+            for (String from : countries) {
+                for (int i = 0; i < countries.size(); i += 9) {
+                    String to = countries.get(i);
+                    assertEquals(trip.getDistance(from, to), loaded.getDistance(from, to), from + " -> " + to);
+                }
+            }
+
+            // header: magic, version, CRC32 of the payload, payload length. the
+            // payload starts with the country, edge and interval counts
+            byte[] bytes = Files.readAllBytes(file);
+            for (int[] count : new int[][] { { 16, 1 << 30 }, { 16, -1 }, { 20, 1 << 30 }, { 24, 1 << 28 },
+                    { 28, 1 << 20 }, }) {
+                Files.write(file, withInt(bytes, count[0], count[1]));
+                assertRefused(file, "snapshot has invalid counts", count[1] + " at " + count[0]);
+            }
+
+            // then the names, each after its byte length, and the int arrays
+            ByteBuffer payload = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            int n = payload.getInt(16);
+            int edges = payload.getInt(20);
+            int offsets = 28;
+            for (int id = 0; id < n; id++) {
+                offsets += 4 + payload.getInt(offsets);
+            }
+            int targets = offsets + 4 * (n + 1);
+            int weights = targets + 4 * edges;
+            int intervals = weights + 4 * edges + 4 * n * n;
+            int firstSource = 0;
+            while (payload.getInt(offsets + 4 * (firstSource + 1)) == 0) {
+                firstSource++;
+            }
+            Object[][] arrays = { { offsets, 1, "snapshot has invalid edge offsets" },
+                    { offsets + 4 * n, edges + 1, "snapshot has invalid edge offsets" },
+                    { offsets + 4 * (firstSource + 1), -1, "snapshot has invalid edge offsets" },
+                    { targets, n, "snapshot has an invalid edge" }, { targets, -1, "snapshot has an invalid edge" },
+                    { weights, -5, "snapshot has an invalid edge" },
+                    { intervals, n, "snapshot has invalid state intervals" }, };
+            for (Object[] array : arrays) {
+                int at = (Integer) array[0];
+                Files.write(file, withInt(bytes, at, (Integer) array[1]));
+                assertRefused(file, (String) array[2], array[1] + " at " + at);
+            }
+
+            // loadWithSnapshot falls back to the data files and writes a good one
+            PrintStream err = System.err;
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                IRoadTrip fallback = IRoadTrip.loadWithSnapshot(args, file.toString());
+                assertEquals(trip.getDistance("France", "Spain"), fallback.getDistance("France", "Spain"),
+                        "fallback France -> Spain");
+            } finally {
+                System.setErr(err);
+            }
+            assertEquals(trip.getDistance("France", "Spain"),
+                    IRoadTrip.fromSnapshot(file.toString()).getDistance("France", "Spain"), "rewritten snapshot");
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * @return copy of a snapshot with one little endian int replaced and the
+     *         payload checksum in the header updated to match
+     */
+    private static byte[] withInt(byte[] snapshot, int position, int value) {
+        byte[] changed = snapshot.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(changed).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(position, value);
+        CRC32 crc = new CRC32();
+        crc.update(changed, 16, changed.length - 16);
+        buffer.putInt(8, (int) crc.getValue());
+        return changed;
+    }
+
+    /**
+     * fails unless reading the snapshot throws an IOException with the message
+     */
+    private static void assertRefused(Path file, String message, String what) {
+        try {
+            IRoadTrip.fromSnapshot(file.toString());
+            throw new AssertionError("read a snapshot with " + what);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith(message), what + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * a country exists while a past state covering its territory does, so dated
+     * routes in 1950 cross the parts of Yugoslavia and Czechoslovakia, while
+     * Eritrea, with no state before 1993, stays out of them
+     */
+    private void stateTerritories() {
+        IRoadTrip trip = new IRoadTrip(args);
+        LocalDate cold = LocalDate.of(1950, 1, 1);
+        LocalDate now = LocalDate.of(2015, 1, 1);
+        for (String country : new String[] { "Slovenia", "Croatia", "Slovakia", "Czechia" }) {
+            assertTrue(trip.existedOn(country, cold), country + " in 1950");
+        }
+        assertTrue(!trip.existedOn("Eritrea", cold), "Eritrea in 1950");
+        assertTrue(trip.existedOn("Eritrea", now), "Eritrea in 2015");
+
+        assertTrue(trip.getDistance("Slovenia", "Croatia") > 0, "Slovenia -> Croatia");
+        assertEquals(trip.getDistance("Slovenia", "Croatia"), trip.getDistance("Slovenia", "Croatia", cold),
+                "Slovenia -> Croatia in 1950");
+        assertTrue(trip.getDistance("Eritrea", "Ethiopia") > 0, "Eritrea -> Ethiopia");
+        assertEquals(-1, trip.getDistance("Eritrea", "Ethiopia", cold), "Eritrea -> Ethiopia in 1950");
+        assertEquals(trip.getDistance("Eritrea", "Ethiopia"), trip.getDistance("Eritrea", "Ethiopia", now),
+                "Eritrea -> Ethiopia in 2015");
+    }
+
+    /**
+     * tries every order of the stops between the first and the last
+     *
+     * @param km distances between the stops, -1 where there is no route
+     * @return length of the shortest order, or -1 if no order can be driven
+     */
+    private static int shortestOrder(int[][] km) {
+        int[] order = new int[km.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        return shortestOrder(km, order, 1);
+    }
+
+    private static int shortestOrder(int[][] km, int[] order, int fixed) {
+        if (fixed >= order.length - 1) {
+            int length = 0;
+            for (int i = 1; i < order.length; i++) {
+                int leg = km[order[i - 1]][order[i]];
+                if (leg < 0) {
+                    return -1;
+                }
+                length += leg;
+            }
+            return length;
+        }
+        int best = -1;
+        for (int i = fixed; i < order.length - 1; i++) {
+            int swap = order[fixed];
+            order[fixed] = order[i];
+            order[i] = swap;
+            int length = shortestOrder(km, order, fixed + 1);
+            if (length >= 0 && (best < 0 || length < best)) {
+                best = length;
+            }
+            order[i] = order[fixed];
+            order[fixed] = swap;
+        }
+        return best;
+    }
+
+    /**
+     * enumerates loopless routes from start best first, ordered by their length
+     * so far plus the exact distance left, and returns the lengths of the first k
+     * to reach end. the distance left comes from bellman-ford over the reversed
+     * edges
+     */
+    private static int[] looplessLengths(IRoadTrip.Graph graph, int start, int end, int k) {
+        int size = graph.size();
+        int[] left = new int[size];
+        Arrays.fill(left, Integer.MAX_VALUE);
+        left[end] = 0;
+        for (boolean changed = true; changed;) {
+            changed = false;
+            for (int id = 0; id < size; id++) {
+                for (int e = graph.firstEdge(id); e < graph.lastEdge(id); e++) {
+                    int next = graph.target(e);
+                    if (left[next] != Integer.MAX_VALUE && left[next] + graph.weight(e) < left[id]) {
+                        left[id] = left[next] + graph.weight(e);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        if (start == end || left[start] == Integer.MAX_VALUE) {
+            return start == end ? new int[] { 0 } : new int[0];
+        }
+
+        // each entry is {estimate, length so far, countries...}
+        PriorityQueue<int[]> open = new PriorityQueue<>(Comparator.comparingInt(entry -> entry[0]));
+        open.add(new int[] { left[start], 0, start });
+        int[] lengths = new int[k];
+        int found = 0;
+        while (!open.isEmpty() && found < k) {
+            int[] entry = open.poll();
+            int last = entry[entry.length - 1];
+            if (last == end) {
+                lengths[found++] = entry[1];
+                continue;
+            }
+            for (int e = graph.firstEdge(last); e < graph.lastEdge(last); e++) {
+                int next = graph.target(e);
+                boolean visited = false;
+                for (int i = 2; i < entry.length; i++) {
+                    visited |= entry[i] == next;
+                }
+                if (visited || left[next] == Integer.MAX_VALUE) {
+                    continue;
+                }
+                int[] longer = Arrays.copyOf(entry, entry.length + 1);
+                longer[1] = entry[1] + graph.weight(e);
+                longer[0] = longer[1] + left[next];
+                longer[entry.length] = next;
+                open.add(longer);
+            }
+        }
+        return Arrays.copyOf(lengths, found);
+    }
+
+    /**
+     * checks that every hop of a route is an edge of the graph with the hop's
+     * distance, and that the hops add up to the route's total
+     */
+    private static void assertEdges(IRoadTrip.Graph graph, IRoadTrip.Route route, String query) {
+        if (!route.found()) {
+            assertEquals(0, route.hops(), query + " hops without a route");
+            return;
+        }
+        List<String> path = route.countries();
+        int sum = 0;
+        for (int i = 0; i < route.hops(); i++) {
+            int edge = graph.edge(graph.id(path.get(i)), graph.id(path.get(i + 1)));
+            assertTrue(edge >= 0 && graph.weight(edge) == route.hopKm(i),
+                    query + ": hop " + path.get(i) + " -> " + path.get(i + 1) + " is not a border of " + route.hopKm(i)
+                            + " km");
+            sum += route.hopKm(i);
+        }
+        assertEquals(route.totalKm(), sum, query + " sum of hops");
+    }
+
+    /**
+     * checks that the hops of a route add up to its total and that no hop is
+     * shorter than the shortest distance between its two countries
+     */
+    private static void assertRoute(IRoadTrip trip, IRoadTrip.Route route, String query) {
+        if (!route.found()) {
+            assertEquals(0, route.hops(), query + " hops without a route");
+            return;
+        }
+        List<String> path = route.countries();
+        assertEquals(route.hops() + 1, path.size(), query + " countries");
+        int sum = 0;
+        for (int i = 0; i < route.hops(); i++) {
+            int shortest = trip.getDistance(path.get(i), path.get(i + 1));
+            if (shortest < 0 || route.hopKm(i) < shortest) {
+                throw new AssertionError(query + ": hop " + path.get(i) + " -> " + path.get(i + 1) + " of "
+                        + route.hopKm(i) + " km is not a border crossing");
+            }
+            sum += route.hopKm(i);
+        }
+        assertEquals(route.totalKm(), sum, query + " sum of hops");
+    }
+
+    private static void assertEquals(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    /**
+     * runs one check and prints its line of the report
+     *
+     * @param name  name of the check
+     * @param check check to run
+     */
+    private void check(String name, Check check) {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            check.run();
+            report.printf("ok   %-28s %8.0f ms%n", name, (System.nanoTime() - start) / 1e6);
+        } catch (Throwable e) {
+            failures++;
+            report.printf("FAIL %-28s %s%n", name, e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java IRoadTripTest borders.txt capdist.csv state_name.tsv [filter]");
+            System.exit(1);
+        }
+
+        // findPath prints every route it finds, keep that out of the report
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        int failed;
+        try {
+            failed = new IRoadTripTest(args, args.length > 3 ? args[3] : null, report).runAll();
+        } finally {
+            System.setOut(report);
+        }
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+    }
+}
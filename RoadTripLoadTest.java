@@ -0,0 +1,202 @@
+// imports
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * load test for RoadTripServer. starts the server on a free localhost port,
+ * unless --url points at one already running, then keeps a number of clients
+ * sending requests for random pairs of countries back to back over kept alive
+ * connections. reports requests per second and latency percentiles
+ *
+ * usage: java RoadTripLoadTest borders.txt capdist.csv state_name.tsv
+ * [--url http://host:port] [--clients 16] [--seconds 10] [--endpoint distance|path]
+ */
+public class RoadTripLoadTest {
+    private static final int WARMUP_SECONDS = 2;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5)).build();
+    private final String baseUrl;
+    private final String endpoint;
+    private final List<String> countries;
+
+    /**
+     * constructs a RoadTripLoadTest
+     *
+     * @param baseUrl   scheme, host and port of the server
+     * @param endpoint  distance or path
+     * @param countries names to draw random pairs from
+     */
+    RoadTripLoadTest(String baseUrl, String endpoint, List<String> countries) {
+        this.baseUrl = baseUrl;
+        this.endpoint = endpoint;
+        this.countries = countries;
+    }
+
+    /**
+     * runs the clients for a number of seconds
+     *
+     * @param clients number of clients sending requests at the same time
+     * @param seconds how long to send requests
+     * @param report  true to print the results
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    void run(int clients, int seconds, boolean report) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        int[] errors = new int[clients];
+        Thread[] threads = new Thread[clients];
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                Random random = new Random(client);
+                long[] own = new long[1 << 16];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    String from = countries.get(random.nextInt(countries.size()));
+                    String to = countries.get(random.nextInt(countries.size()));
+                    long sent = System.nanoTime();
+                    if (!send(from, to)) {
+                        errors[client]++;
+                    }
+                    if (count == own.length) {
+                        own = Arrays.copyOf(own, own.length * 2);
+                    }
+                    own[count++] = System.nanoTime() - sent;
+                }
+                latencies[client] = own;
+                counts[client] = count;
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (!report) {
+            return;
+        }
+
+        int total = 0;
+        int failed = 0;
+        for (int c = 0; c < clients; c++) {
+            total += counts[c];
+            failed += errors[c];
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, at, counts[c]);
+            at += counts[c];
+        }
+        Arrays.sort(all);
+
+        System.out.printf("%d clients, %d requests in %.1f s, %d failed%n", clients, total, elapsed, failed);
+        System.out.printf("throughput %.0f req/s%n", total / elapsed);
+        System.out.printf("latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n", percentile(all, 0.50),
+                percentile(all, 0.99), percentile(all, 0.999), total == 0 ? 0 : all[total - 1] / 1e6);
+    }
+
+    /**
+     * sends one request
+     *
+     * @return true if the server answered 200
+     */
+    private boolean send(String from, String to) {
+        URI uri = URI.create(baseUrl + "/" + endpoint + "?from=" + URLEncoder.encode(from, StandardCharsets.UTF_8)
+                + "&to=" + URLEncoder.encode(to, StandardCharsets.UTF_8));
+        try {
+            HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            return response.statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, ascending
+     * @param p      fraction of requests at or below the result
+     * @return latency in milliseconds
+     */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java RoadTripLoadTest borders.txt capdist.csv state_name.tsv"
+                    + " [--url http://host:port] [--clients 16] [--seconds 10] [--endpoint distance|path]");
+            System.exit(1);
+        }
+
+        String url = null;
+        int clients = 16;
+        int seconds = 10;
+        String endpoint = "distance";
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--endpoint":
+                    endpoint = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        // every country named on the left of borders.txt
+        List<String> countries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(args[0]))) {
+            int equals = line.indexOf(" = ");
+            if (equals > 0) {
+                countries.add(line.substring(0, equals).trim());
+            }
+        }
+
+        RoadTripServer server = null;
+        if (url == null) {
+            server = new RoadTripServer(new IRoadTrip(args), new InetSocketAddress("localhost", 0));
+            server.start();
+            url = "http://localhost:" + server.port();
+        }
+        try {
+            RoadTripLoadTest test = new RoadTripLoadTest(url, endpoint, countries);
+            test.run(clients, WARMUP_SECONDS, false);
+            test.run(clients, seconds, true);
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,510 @@
+// imports
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import javax.management.JMException;
+
+/**
+ * HTTP front end for IRoadTrip on the JDK's built in server. every request runs
+ * on its own virtual thread where the runtime has them, and every response has
+ * a fixed length so clients can keep their connections open
+ *
+ * GET /distance?from=France&to=Spain answers {"from":..,"to":..,"km":..}
+ * GET /path?from=France&to=Spain adds the "path" countries and "hopKm"
+ * POST /batch takes one tab separated pair of countries per line and answers a
+ * JSON array with one path result per pair. more than MAX_BATCH_QUERIES pairs
+ * or MAX_BATCH_BYTES bytes answer 413
+ * GET /suggest?q=fra&limit=10 answers {"query":..,"suggestions":[..]} for
+ * autocompletion
+ *
+ * names with a typo or given in part are answered when they can only mean one
+ * country, with a "corrected" member mapping each such input to the country
+ * used. other unknown countries answer 404 with suggestions, missing
+ * parameters 400. km is -1 when the countries are known but no route connects
+ * them
+ *
+ * usage: java RoadTripServer borders.txt capdist.csv state_name.tsv [--port 8080]
+ * [--snapshot file] [--precompute] [--watch]
+ *
+ * main turns on TCP_NODELAY for the JDK server unless the
+ * sun.net.httpserver.nodelay property is already set. the JDK server writes
+ * headers and body separately, so without it a kept alive connection waits out
+ * the client's delayed ack every request. code that creates a RoadTripServer
+ * itself should launch with -Dsun.net.httpserver.nodelay=true
+ */
+public class RoadTripServer {
+    static final int MAX_BATCH_QUERIES = 10_000;
+    static final int MAX_BATCH_BYTES = 4 << 20;
+    static final int DEFAULT_SUGGESTIONS = 10;
+    static final int MAX_SUGGESTIONS = 100;
+
+    private final IRoadTrip roadTrip;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * the part of a request that differs between endpoints
+     */
+    private interface Endpoint {
+        /**
+         * @param exchange request to answer
+         * @throws IOException if the request cannot be read or answered
+         */
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * reads at most a fixed number of bytes of a request body, then reports the
+     * end of the body and whether more bytes were left
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean exceeded;
+
+        /**
+         * @param in    request body
+         * @param limit most bytes to read
+         */
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        /**
+         * @return true if the body was longer than the limit
+         */
+        boolean exceeded() {
+            return exceeded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                exceeded |= in.read() >= 0;
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * creates a server for an IRoadTrip, bound but not started
+     *
+     * @param roadTrip IRoadTrip answering the queries
+     * @param address  address to listen on, port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     */
+    public RoadTripServer(IRoadTrip roadTrip, InetSocketAddress address) throws IOException {
+        this.roadTrip = roadTrip;
+        this.server = HttpServer.create(address, 0);
+        this.executor = IRoadTrip.newQueryExecutor();
+        server.setExecutor(executor);
+        server.createContext("/distance", exchange -> handle(exchange, "GET", this::distance));
+        server.createContext("/path", exchange -> handle(exchange, "GET", this::path));
+        server.createContext("/batch", exchange -> handle(exchange, "POST", this::batch));
+        server.createContext("/suggest", exchange -> handle(exchange, "GET", this::suggest));
+    }
+
+    /**
+     * starts answering requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * stops the server
+     *
+     * @param delaySeconds longest time to wait for requests still running
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * checks the method, runs the endpoint and turns failures into error
+     * responses, so one bad request never takes the server down
+     */
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) {
+        try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                respond(exchange, 405, error("method not allowed"));
+                return;
+            }
+            endpoint.handle(exchange);
+        } catch (IllegalArgumentException e) {
+            try {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (IOException ignored) {
+                // the client went away
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                respond(exchange, 500, error("internal error"));
+            } catch (IOException ignored) {
+                // the client went away
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void distance(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange);
+        String from = required(query, "from");
+        String to = required(query, "to");
+        String fromCountry = resolve(exchange, from);
+        String toCountry = fromCountry != null ? resolve(exchange, to) : null;
+        if (toCountry == null) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(96);
+        sb.append("{\"from\":");
+        IRoadTrip.appendJsonString(sb, from);
+        sb.append(",\"to\":");
+        IRoadTrip.appendJsonString(sb, to);
+        appendCorrected(sb, from, fromCountry, to, toCountry);
+        sb.append(",\"km\":").append(roadTrip.getDistance(fromCountry, toCountry)).append('}');
+        respond(exchange, 200, sb.toString());
+    }
+
+    private void path(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange);
+        String from = required(query, "from");
+        String to = required(query, "to");
+        String fromCountry = resolve(exchange, from);
+        String toCountry = fromCountry != null ? resolve(exchange, to) : null;
+        if (toCountry == null) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(256);
+        appendPath(sb, from, fromCountry, to, toCountry, roadTrip.findRoute(fromCountry, toCountry));
+        respond(exchange, 200, sb.toString());
+    }
+
+    private void suggest(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange);
+        String typed = required(query, "q");
+        int limit = DEFAULT_SUGGESTIONS;
+        if (query.containsKey("limit")) {
+            try {
+                limit = Math.min(MAX_SUGGESTIONS, Integer.parseInt(query.get("limit")));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit is not a number: " + query.get("limit"));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"query\":");
+        IRoadTrip.appendJsonString(sb, typed);
+        sb.append(",\"suggestions\":");
+        appendNames(sb, roadTrip.suggestCountries(typed, limit));
+        sb.append('}');
+        respond(exchange, 200, sb.toString());
+    }
+
+    private void batch(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length.trim()) > MAX_BATCH_BYTES) {
+            tooLarge(exchange, "body larger than " + MAX_BATCH_BYTES + " bytes");
+            return;
+        }
+
+        // read line by line and stop at the first query or byte over the limits,
+        // chunked bodies come without a length to check up front
+        List<String[]> queries = new ArrayList<>();
+        List<String[]> resolved = new ArrayList<>();
+        LimitedInputStream body = new LimitedInputStream(exchange.getRequestBody(), MAX_BATCH_BYTES);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IllegalArgumentException("expected two tab separated countries: " + line.trim());
+                }
+                if (queries.size() == MAX_BATCH_QUERIES) {
+                    tooLarge(exchange, "more than " + MAX_BATCH_QUERIES + " queries");
+                    return;
+                }
+                queries.add(new String[] { line.substring(0, tab).trim(), line.substring(tab + 1).trim() });
+            }
+            if (body.exceeded()) {
+                tooLarge(exchange, "body larger than " + MAX_BATCH_BYTES + " bytes");
+                return;
+            }
+        }
+
+        // unknown names stay as given and come back with an error
+        for (String[] query : queries) {
+            String from = roadTrip.resolveCountry(query[0]);
+            String to = roadTrip.resolveCountry(query[1]);
+            resolved.add(new String[] { from != null ? from : query[0], to != null ? to : query[1] });
+        }
+        List<IRoadTrip.Route> routes = roadTrip.findRoutes(resolved);
+        StringBuilder sb = new StringBuilder(64 + 160 * queries.size());
+        sb.append('[');
+        for (int i = 0; i < queries.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            String[] query = queries.get(i);
+            String[] countries = resolved.get(i);
+            appendPath(sb, query[0], countries[0], query[1], countries[1], routes.get(i));
+        }
+        sb.append(']');
+        respond(exchange, 200, sb.toString());
+    }
+
+    /**
+     * answers 413 once up to MAX_BATCH_BYTES more of the body are read and
+     * dropped. the JDK server resets a connection closed with a request still
+     * arriving, which can cut off the answer before the client reads it; bodies
+     * longer than that may still see the connection reset
+     */
+    private static void tooLarge(HttpExchange exchange, String message) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] discard = new byte[8192];
+        long left = MAX_BATCH_BYTES;
+        for (int read; left > 0 && (read = in.read(discard, 0, (int) Math.min(discard.length, left))) >= 0;) {
+            left -= read;
+        }
+        respond(exchange, 413, error(message));
+    }
+
+    /**
+     * appends a path result, with an error member and suggestions if a country is
+     * unknown
+     *
+     * @param from        starting country as given
+     * @param fromCountry starting country the route was found for
+     * @param to          destination as given
+     * @param toCountry   destination the route was found for
+     */
+    private void appendPath(StringBuilder sb, String from, String fromCountry, String to, String toCountry,
+            IRoadTrip.Route route) {
+        sb.append("{\"from\":");
+        IRoadTrip.appendJsonString(sb, from);
+        sb.append(",\"to\":");
+        IRoadTrip.appendJsonString(sb, to);
+        for (String country : new String[] { fromCountry, toCountry }) {
+            if (roadTrip.componentOf(country) < 0) {
+                sb.append(",\"error\":\"unknown country\",\"country\":");
+                IRoadTrip.appendJsonString(sb, country);
+                sb.append(",\"suggestions\":");
+                appendNames(sb, roadTrip.suggestCountries(country, DEFAULT_SUGGESTIONS));
+                break;
+            }
+        }
+        appendCorrected(sb, from, fromCountry, to, toCountry);
+        sb.append(",\"km\":").append(route.totalKm());
+        IRoadTrip.appendRouteJson(sb, route);
+        sb.append('}');
+    }
+
+    /**
+     * appends a "corrected" member mapping every input that only resolved by
+     * suggestion to the country used for it, nothing if both resolved exactly
+     */
+    private void appendCorrected(StringBuilder sb, String from, String fromCountry, String to, String toCountry) {
+        boolean fromCorrected = roadTrip.componentOf(from) < 0 && roadTrip.componentOf(fromCountry) >= 0;
+        boolean toCorrected = roadTrip.componentOf(to) < 0 && roadTrip.componentOf(toCountry) >= 0;
+        if (!fromCorrected && !toCorrected) {
+            return;
+        }
+        sb.append(",\"corrected\":{");
+        if (fromCorrected) {
+            IRoadTrip.appendJsonString(sb, from);
+            sb.append(':');
+            IRoadTrip.appendJsonString(sb, fromCountry);
+        }
+        if (toCorrected && !(fromCorrected && from.equals(to))) {
+            if (fromCorrected) {
+                sb.append(',');
+            }
+            IRoadTrip.appendJsonString(sb, to);
+            sb.append(':');
+            IRoadTrip.appendJsonString(sb, toCountry);
+        }
+        sb.append('}');
+    }
+
+    private static void appendNames(StringBuilder sb, List<String> names) {
+        sb.append('[');
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            IRoadTrip.appendJsonString(sb, names.get(i));
+        }
+        sb.append(']');
+    }
+
+    /**
+     * resolves a country name, answering 404 with suggestions if it is unknown
+     * or could mean several countries
+     *
+     * @return name of the country as used in borders, or null if the request
+     *         was answered
+     */
+    private String resolve(HttpExchange exchange, String country) throws IOException {
+        String resolved = roadTrip.resolveCountry(country);
+        if (resolved != null) {
+            return resolved;
+        }
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"error\":\"unknown country\",\"country\":");
+        IRoadTrip.appendJsonString(sb, country);
+        sb.append(",\"suggestions\":");
+        appendNames(sb, roadTrip.suggestCountries(country, DEFAULT_SUGGESTIONS));
+        sb.append('}');
+        respond(exchange, 404, sb.toString());
+        return null;
+    }
+
+    /**
+     * decodes the query string of a request
+     */
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return parameters;
+        }
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static String error(String message) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"error\":");
+        IRoadTrip.appendJsonString(sb, message);
+        return sb.append('}').toString();
+    }
+
+    /**
+     * sends a JSON response. the length is always set up front, which keeps the
+     * connection open for the client's next request
+     */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: java RoadTripServer borders.txt capdist.csv state_name.tsv [--port 8080]"
+                    + " [--snapshot file] [--precompute] [--watch]");
+            System.exit(1);
+        }
+
+        int port = 8080;
+        String snapshotPath = null;
+        boolean precompute = false;
+        boolean watch = false;
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--snapshot":
+                    snapshotPath = args[++i];
+                    break;
+                case "--precompute":
+                    precompute = true;
+                    break;
+                case "--watch":
+                    watch = true;
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        IRoadTrip roadTrip = snapshotPath != null ? IRoadTrip.loadWithSnapshot(args, snapshotPath)
+                : new IRoadTrip(args);
+        if (roadTrip.loadTimings() != null) {
+            System.err.println("Loaded in " + roadTrip.loadTimings());
+        }
+        if (precompute) {
+            roadTrip.precomputeAllPairs();
+        }
+        try {
+            roadTrip.registerStatsMBean("server");
+        } catch (JMException e) {
+            System.err.println("Could not publish search statistics: " + e.getMessage());
+        }
+        try {
+            if (watch) {
+                roadTrip.watchDataFiles(args);
+            }
+            RoadTripServer server = new RoadTripServer(roadTrip, new InetSocketAddress(port));
+            server.start();
+            System.err.println("Listening on port " + server.port());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}